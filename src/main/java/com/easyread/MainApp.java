@@ -8,9 +8,12 @@ import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.beans.value.ObservableValue;
 import com.easyread.model.QuoteRecord;
+import com.easyread.outbox.IdempotencyLedger;
+import com.easyread.outbox.Outbox;
 import com.easyread.storage.QuoteDatabase;
 import com.easyread.trello.TrelloClient;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -26,10 +29,23 @@ import java.nio.charset.StandardCharsets;
 import com.easyread.storage.ClientDatabase;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainApp extends Application {
 
+    private static final String CRM_CSV_PATH = "/Users/Shared/EasyReadQuoter/clients_export.csv";
+
     private QuoteRecord currentRecord; // most recent quote we created in this session
+    private static final AtomicBoolean xeroSyncStarted = new AtomicBoolean();
+    // the outbox is shared by every session; its handlers are registered by the first
+    private static final AtomicBoolean outboxStarted = new AtomicBoolean();
+
+    // this session's outbox listener, dropped again in stop()
+    private Outbox outbox;
+    private java.util.function.Consumer<Outbox.Status> outboxListener;
     
  // Refreshes the list of companies shown in the Clients tab
     private void refreshCompanyList() {
@@ -62,14 +78,20 @@ public class MainApp extends Application {
 
     	// Quotes DB lives under DATA_DIR
     	String dbPath = java.nio.file.Paths.get(dataDir, "quotes_db.json").toString();
-    	QuoteDatabase db = new QuoteDatabase(dbPath);
+    	QuoteDatabase db = QuoteDatabase.open(dbPath);
     	System.out.println("DB file is at: " + dbPath);
     	
     	
         
         String clientsDbPath = java.nio.file.Paths.get(dataDir, "clients_db.json").toString();
-        ClientDatabase clientDb = new ClientDatabase(clientsDbPath);
+        ClientDatabase clientDb = ClientDatabase.open(clientsDbPath);
         System.out.println("Clients DB file is at: " + clientsDbPath);
+
+        // Trello / Xero work queued by Create Package; handlers are registered further down
+        Outbox outbox = Outbox.open(java.nio.file.Paths.get(dataDir, "outbox.jsonl"));
+        this.outbox = outbox;
+        // what each quote already has in Trello / Xero, so retries don't make duplicates
+        IdempotencyLedger ledger = IdempotencyLedger.open(java.nio.file.Paths.get(dataDir, "idempotency.jsonl"));
         
         
 
@@ -97,7 +119,25 @@ public class MainApp extends Application {
 
         Button browseFileButton = new Button("Browse file…");
 
+        // Known contact? Pre-fill their company when the email field loses focus
+        clientEmailField.focusedProperty().addListener((obs, was, focused) -> {
+            if (focused) return;
+            String company = companyNameField.getText();
+            if (company != null && !company.isBlank()) return;
+            String known = clientDb.suggestCompanyForEmail(clientEmailField.getText());
+            if (known != null) {
+                companyNameField.setText(known);
+            }
+        });
+
         Label quoteNumberLabel = new Label("Quote number: (not generated yet)");
+        Label integrationStatusLabel = new Label("");
+        outboxListener = status -> Platform.runLater(() -> {
+            if (currentRecord != null && currentRecord.quoteNumber == status.quoteNumber()) {
+                integrationStatusLabel.setText(describeIntegrations(outbox, status.quoteNumber()));
+            }
+        });
+        outbox.addListener(outboxListener);
         Button createPackageButton = new Button("Create Package");
 
 
@@ -155,7 +195,7 @@ public class MainApp extends Application {
 
      // Search bar
      TextField clientSearchField = new TextField();
-     clientSearchField.setPromptText("Search companies…");
+     clientSearchField.setPromptText("Search companies or emails…");
 
      // Company list
      ListView<String> companyListView = new ListView<>();
@@ -240,15 +280,11 @@ public class MainApp extends Application {
      clientsLayout.getChildren().add(clientsSplit);
 
      // Helper to (re)load companies into the list, with optional filter
+     // (the index matches names and contact emails and returns them already sorted)
      Runnable refreshCompanyList = () -> {
-         ObservableList<String> items = FXCollections.observableArrayList();
-         for (String name : clientDb.getAllClients().keySet()) {
-             String filter = clientSearchField.getText();
-             if (filter == null || filter.isBlank() || name.toLowerCase().contains(filter.toLowerCase())) {
-                 items.add(name);
-             }
-         }
-         companyListView.setItems(items.sorted());
+         ObservableList<String> items =
+                 FXCollections.observableArrayList(clientDb.searchCompanies(clientSearchField.getText()));
+         companyListView.setItems(items);
      };
 
      // Helper to load details for the selected company
@@ -261,8 +297,14 @@ public class MainApp extends Application {
              return;
          }
 
-         var map = clientDb.getAllClients();
-         var info = map.get(sel);
+         var info = clientDb.getClient(sel);
+         if (info == null) {
+             // deleted or renamed from another session
+             companyNameEditField.clear();
+             contactsListView.setItems(FXCollections.observableArrayList());
+             jobsTable.setItems(FXCollections.observableArrayList());
+             return;
+         }
          companyNameEditField.setText(sel);
 
          // contacts
@@ -296,7 +338,7 @@ public class MainApp extends Application {
              companyListView.getSelectionModel().select(newName);
              refreshDetails.run();
              // re-export CSV
-             clientDb.exportCsv("/Users/Shared/EasyReadQuoter/clients_export.csv");
+             clientDb.requestCsvExport(CRM_CSV_PATH);
          } else {
              alertInfo("Rename", "Could not rename (name may already exist).");
          }
@@ -313,7 +355,7 @@ public class MainApp extends Application {
          if (clientDb.addContact(sel, email)) {
              newContactField.clear();
              refreshDetails.run();
-             clientDb.exportCsv("/Users/Shared/EasyReadQuoter/clients_export.csv");
+             clientDb.requestCsvExport(CRM_CSV_PATH);
          } else {
              alertInfo("Contacts", "Could not add contact.");
          }
@@ -328,7 +370,7 @@ public class MainApp extends Application {
          }
          if (clientDb.removeContact(sel, email)) {
              refreshDetails.run();
-             clientDb.exportCsv("/Users/Shared/EasyReadQuoter/clients_export.csv");
+             clientDb.requestCsvExport(CRM_CSV_PATH);
          } else {
              alertInfo("Contacts", "Could not remove contact.");
          }
@@ -346,7 +388,7 @@ public class MainApp extends Application {
          if (clientDb.updateJobTitle(sel, row.getQuoteNumber(), newTitle)) {
              editJobTitleField.clear();
              refreshDetails.run();
-             clientDb.exportCsv("/Users/Shared/EasyReadQuoter/clients_export.csv");
+             clientDb.requestCsvExport(CRM_CSV_PATH);
          } else {
              alertInfo("Jobs", "Could not update job title.");
          }
@@ -361,7 +403,7 @@ public class MainApp extends Application {
          }
          if (clientDb.removeJob(sel, row.getQuoteNumber())) {
              refreshDetails.run();
-             clientDb.exportCsv("/Users/Shared/EasyReadQuoter/clients_export.csv");
+             clientDb.requestCsvExport(CRM_CSV_PATH);
          } else {
              alertInfo("Jobs", "Could not remove job.");
          }
@@ -369,8 +411,8 @@ public class MainApp extends Application {
 
      // Manual export
      exportClientsCsvButton.setOnAction(e -> {
-         clientDb.exportCsv("/Users/Shared/EasyReadQuoter/clients_export.csv");
-         alertInfo("Export", "Exported to /Users/Shared/EasyReadQuoter/clients_export.csv");
+         clientDb.exportCsv(CRM_CSV_PATH);
+         alertInfo("Export", "Exported to " + CRM_CSV_PATH);
      });
 
      // Initial load
@@ -474,8 +516,10 @@ public class MainApp extends Application {
                                 ? "NO_TITLE"
                                 : rec.documentTitle.replaceAll("[^A-Za-z0-9 _-]", "_").trim();
 
-                // Get next quote number BEFORE saving, so folder name is correct
-                int nextNum = db.getNextQuoteNumber();
+                // Reserve the quote number BEFORE saving, so folder name is correct
+                // and no other session can take the same number in the meantime
+                int nextNum = db.reserveQuoteNumber();
+                rec.quoteNumber = nextNum;
 
                 String jobFolderPath =
                         baseFolder + "/" + nextNum + " - " + safeCompany + " - " + safeDoc;
@@ -486,7 +530,7 @@ public class MainApp extends Application {
                 rec.jobFolderPath = jobFolderPath;
 
                 //
-                // 4. Save record to DB (this assigns rec.quoteNumber internally)
+                // 4. Save record to DB (keeps the number reserved above)
                 //
                 db.addQuote(rec);
 
@@ -508,10 +552,14 @@ public class MainApp extends Application {
                         rec.documentTitle       // job / document title
                 );
                 
-             // After updating the CRM JSON, also export a spreadsheet
-                String crmCsvPath = "/Users/Shared/EasyReadQuoter/clients_export.csv";
-                clientDb.exportCsv(crmCsvPath);
-                System.out.println("Exported CRM CSV to: " + crmCsvPath);
+             // After updating the CRM JSON, also re-export the spreadsheet (in the background)
+                clientDb.requestCsvExport(CRM_CSV_PATH);
+                System.out.println("Queued CRM CSV export to: " + CRM_CSV_PATH);
+
+                // Trello card + Xero quote happen in the background (and survive a restart)
+                outbox.enqueue(rec.quoteNumber, Outbox.Kind.TRELLO_CARD);
+                outbox.enqueue(rec.quoteNumber, Outbox.Kind.XERO_QUOTE);
+                integrationStatusLabel.setText(describeIntegrations(outbox, rec.quoteNumber));
 
 
 
@@ -583,7 +631,8 @@ public class MainApp extends Application {
                 ok.setHeaderText("Quote " + rec.quoteNumber + " created");
                 ok.setContentText(
                         "Job folder:\n" + rec.jobFolderPath +
-                        "\n\nDB file:\n" + dbPath
+                        "\n\nDB file:\n" + dbPath +
+                        "\n\nThe Trello card and Xero quote are being created in the background."
                 );
                 ok.showAndWait();
 
@@ -623,54 +672,33 @@ public class MainApp extends Application {
             copied.showAndWait();
         });
         
+        Button connectXeroBtn = new Button("Connect Xero");
         Button createXeroQuoteBtn = new Button("Create in Xero");
     
-        xeroLayout.getChildren().add(createXeroQuoteBtn);
+        xeroLayout.getChildren().addAll(connectXeroBtn, createXeroQuoteBtn);
+
+        // Xero's login page opens through HostServices: in web mode that's this user's own
+        // browser tab (the server has no desktop browser), on the desktop the default one
+        connectXeroBtn.setOnAction(ev -> {
+            connectXeroBtn.setDisable(true);
+            com.easyread.xero.XeroClient.shared("059309B562E941509530413753FA3715")
+                    .loginAsync(url -> Platform.runLater(() -> getHostServices().showDocument(url)))
+                    .whenComplete((token, ex) -> Platform.runLater(() -> {
+                        connectXeroBtn.setDisable(false);
+                        if (ex == null) startXeroSync(clientDb, db, dataDir);
+                        Throwable cause = (ex instanceof java.util.concurrent.CompletionException) ? ex.getCause() : ex;
+                        if (cause == null) alert("Xero", "Connected to Xero.");
+                        else if (cause instanceof java.util.concurrent.TimeoutException) alertError("Xero", "The Xero login wasn't finished in time. Try again.");
+                        else alertError("Xero", "Couldn't connect to Xero: " + cause.getMessage());
+                    }));
+        });
 
         createXeroQuoteBtn.setOnAction(ev -> {
             if (currentRecord == null) {
                 alert("Xero", "Create a package first."); return;
             }
-            try {
-            	
-            	
-            	String xeroClientId = System.getenv("XERO_CLIENT_ID");
-            	if (xeroClientId == null || xeroClientId.isBlank()) {
-            	    alert("Xero", "XERO_CLIENT_ID env var is not set.");
-            	    return;
-            	}
-            	var xero = new com.easyread.xero.XeroClient("059309B562E941509530413753FA3715");
-
-
-
-                // 1) Contact
-                String contactId = xero.getOrCreateContact(
-                        currentRecord.companyName,
-                        currentRecord.clientEmail
-                );
-
-                // 2) Create draft quote
-                String ref = "Quote " + currentRecord.quoteNumber;
-                String accountCode = "200"; // <- confirm with finance
-                String quoteId = xero.createDraftQuote(
-                        contactId,
-                        currentRecord.documentTitle,
-                        ref,
-                        currentRecord.finalPriceGBP,
-                        accountCode
-                );
-
-                // 3) Download PDF
-                Path pdfPath = Path.of(currentRecord.jobFolderPath, "Quote_" + currentRecord.quoteNumber + ".pdf");
-                xero.downloadQuotePdf(quoteId, pdfPath);
-
-                // 4) Done
-                alert("Xero", "Draft quote created.\nQuoteID: " + quoteId + "\nSaved:\n" + pdfPath);
-
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                alert("Xero Error", ex.getMessage());
-            }
+            // Create Package already queued it; this re-queues one that failed
+            alert("Xero", queueIntegration(outbox, currentRecord.quoteNumber, Outbox.Kind.XERO_QUOTE));
         });
 
 
@@ -778,6 +806,9 @@ public class MainApp extends Application {
                 STATUS_OPTION_WITH_US_ID,
                 EST_HOURS_FIELD_ID
         );
+        // open the connection now so the first card doesn't wait on the TLS handshake
+        trelloClient.warmUp();
+        trelloClient.setLedger(ledger);
 
         createTrelloButton.setOnAction(e -> {
             if (currentRecord == null) {
@@ -789,39 +820,101 @@ public class MainApp extends Application {
                 return;
             }
 
-            try {
-                // 1. Create/clone card in Trello
-                String newCardId = trelloClient.createFullCardForQuote(
-                        currentRecord.companyName,
-                        currentRecord.documentTitle,
-                        currentRecord.quoteNumber,
-                        currentRecord.specialNotes,
-                        currentRecord.clientEmail,
-                        currentRecord.estimatedHours
-                );
+            // Create Package already queued it; this re-queues one that failed
+            alert("Trello", queueIntegration(outbox, currentRecord.quoteNumber, Outbox.Kind.TRELLO_CARD));
+        });
 
-                // 2. Upload the client file as an attachment
-                trelloClient.uploadAttachmentToCard(newCardId, currentRecord.attachedFilePath);
+        //
+        // -------- BACKGROUND INTEGRATIONS (OUTBOX) --------
+        //
+        // Handlers load the quote from the DB, so they also work for quotes
+        // queued before a restart. Registered and started once per process, by
+        // whichever session comes first; they only use process-wide state.
+        if (outboxStarted.compareAndSet(false, true)) {
+            outbox.register(Outbox.Kind.TRELLO_CARD, quoteNumber -> {
+                QuoteRecord rec = db.findByNumber(quoteNumber);
+                if (rec == null) throw new IOException("Quote " + quoteNumber + " not found");
+                // Create/clone the card, then fill it in and upload the client file (in parallel)
+                return trelloClient.createFullCardForQuoteAsync(
+                        rec.companyName,
+                        rec.documentTitle,
+                        rec.quoteNumber,
+                        rec.specialNotes,
+                        rec.clientEmail,
+                        rec.estimatedHours,
+                        rec.attachedFilePath
+                ).get();
+            });
+
+            outbox.register(Outbox.Kind.XERO_QUOTE, quoteNumber -> {
+                QuoteRecord rec = db.findByNumber(quoteNumber);
+                if (rec == null) throw new IOException("Quote " + quoteNumber + " not found");
+
+                String xeroClientId = System.getenv("XERO_CLIENT_ID");
+                if (xeroClientId == null || xeroClientId.isBlank()) {
+                    throw new IOException("XERO_CLIENT_ID env var is not set.");
+                }
+                var xero = com.easyread.xero.XeroClient.shared("059309B562E941509530413753FA3715");
+                // Never log in from here: a login page opened by a worker has nobody to see it
+                if (!xero.isConnected()) {
+                    throw new IOException("Xero isn't connected. Use Connect Xero, then Create in Xero again.");
+                }
 
-                // 3. Alert success
-                Alert done = new Alert(Alert.AlertType.INFORMATION);
-                done.setTitle("Trello");
-                done.setHeaderText("Card created");
-                done.setContentText(
-                        "New Trello card ID:\n" + newCardId + "\n\n" +
-                        "Attachment uploaded (if any)."
-                );
-                done.showAndWait();
+                // Skip straight to the PDF if an earlier attempt already made the quote.
+                // Xero also de-duplicates on the key, covering a crash before we wrote it down.
+                String quoteId = ledger.doneId(rec.quoteNumber, "xero", "quote");
+                if (quoteId == null) {
+                    // 1) Contact
+                    String contactId = xero.getOrCreateContact(
+                            rec.companyName,
+                            rec.clientEmail
+                    );
+
+                    // 2) Create draft quote
+                    String ref = "Quote " + rec.quoteNumber;
+                    String accountCode = "200"; // <- confirm with finance
+                    ledger.started(rec.quoteNumber, "xero", "quote");
+                    quoteId = xero.createDraftQuote(
+                            contactId,
+                            rec.documentTitle,
+                            ref,
+                            rec.finalPriceGBP,
+                            accountCode,
+                            IdempotencyLedger.idempotencyKey(rec.quoteNumber, "xero", "quote")
+                    );
+                    ledger.done(rec.quoteNumber, "xero", "quote", quoteId);
+                }
+                if (rec.xeroQuoteId == null) {
+                    String id = quoteId;
+                    db.updateQuote(rec.quoteNumber, r -> {
+                        r.xeroQuoteId = id;
+                        if (r.xeroStatus == null) r.xeroStatus = "DRAFT";
+                    });
+                }
 
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                Alert err = new Alert(Alert.AlertType.ERROR);
-                err.setTitle("Trello error");
-                err.setHeaderText("Could not create Trello card");
-                err.setContentText(ex.getMessage());
-                err.showAndWait();
-            }
-        });
+                // 3) Download PDF
+                Path pdfPath = Path.of(rec.jobFolderPath, "Quote_" + rec.quoteNumber + ".pdf");
+                xero.downloadQuotePdf(quoteId, pdfPath);
+                System.out.println("[Xero] contact cache: " + xero.contactCacheStats());
+                return quoteId;
+            });
+
+            outbox.start();
+
+            // Already connected from an earlier run: start the Xero sync without waiting
+            // for Connect Xero. Checked off the FX thread, as it may refresh the token.
+            Thread check = new Thread(() -> {
+                try {
+                    if (com.easyread.xero.XeroClient.shared("059309B562E941509530413753FA3715").isConnected()) {
+                        startXeroSync(clientDb, db, dataDir);
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }, "xero-startup-check");
+            check.setDaemon(true);
+            check.start();
+        }
 
 
         //
@@ -842,6 +935,7 @@ public class MainApp extends Application {
             new HBox(10, filePathField, browseFileButton),
 
             quoteNumberLabel,
+            integrationStatusLabel,
             createPackageButton   // <— last item, NO comma after this line
         );
 
@@ -857,7 +951,7 @@ public class MainApp extends Application {
             boolean deleted = clientDb.deleteCompany(target);
             if (deleted) {
                 deleteCompanyField.clear();
-                clientDb.exportCsv("/Users/Shared/EasyReadQuoter/clients_export.csv");
+                clientDb.requestCsvExport(CRM_CSV_PATH);
                 refreshCompanyList();   // method, not Runnable
                 refreshDetails();       // method, not Runnable
                 alertInfo("Delete Company", "Company \"" + target + "\" deleted.");
@@ -894,6 +988,14 @@ public class MainApp extends Application {
 
         
     }
+
+    // JPro calls this when the session's tab closes; the shared outbox outlives it
+    @Override
+    public void stop() {
+        if (outbox != null && outboxListener != null) {
+            outbox.removeListener(outboxListener);
+        }
+    }
     
  // Simple row model for the jobs table
     public static class JobRow {
@@ -907,6 +1009,74 @@ public class MainApp extends Application {
         public String getJobTitle() { return jobTitle; }
     }
     
+    // Once connected to Xero (once per process): keep a mirror of Xero's contacts, which
+    // also fills the email cache so repeat clients skip the search, and link CRM companies
+    // to them; and keep our quotes' Xero statuses up to date
+    private static void startXeroSync(ClientDatabase clientDb, QuoteDatabase db, String dataDir) {
+        if (!xeroSyncStarted.compareAndSet(false, true)) return;
+        var xero = com.easyread.xero.XeroClient.shared("059309B562E941509530413753FA3715");
+        var sync = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "xero-contact-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        sync.scheduleWithFixedDelay(() -> {
+            try {
+                if (!xero.isConnected()) return;
+                xero.syncContactMirror();
+                linkXeroContacts(clientDb, xero.contactMirror());
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }, 0, 30, TimeUnit.MINUTES);
+
+        new com.easyread.xero.XeroQuoteStatusPoller(xero, db,
+                java.nio.file.Paths.get(dataDir, "xero_quote_poll.json")).start(10);
+    }
+
+    // Point each CRM company at its Xero contact, where the mirror can tell which it is
+    private static void linkXeroContacts(ClientDatabase clientDb, com.easyread.xero.XeroContactMirror mirror) {
+        int linked = 0;
+        for (var e : clientDb.snapshot().entrySet()) {
+            String id = mirror.contactIdFor(e.getKey(), e.getValue().contacts);
+            if (id != null && clientDb.setXeroContactId(e.getKey(), id)) linked++;
+        }
+        if (linked > 0) System.out.println("[Xero] Linked " + linked + " CRM companies to Xero contacts");
+    }
+
+    // One line for the Quote tab, e.g. "Trello: done (card 64f...) · Xero: retrying (attempt 2)"
+    private static String describeIntegrations(Outbox outbox, int quoteNumber) {
+        StringBuilder sb = new StringBuilder();
+        for (var entry : outbox.statusOf(quoteNumber).entrySet()) {
+            Outbox.Status st = entry.getValue();
+            if (sb.length() > 0) sb.append("  ·  ");
+            sb.append(entry.getKey() == Outbox.Kind.TRELLO_CARD ? "Trello: " : "Xero: ");
+            switch (st.state()) {
+                case DONE -> sb.append("done");
+                case FAILED -> sb.append("failed (").append(st.error()).append(")");
+                case PENDING -> sb.append(st.attempts() == 0 ? "in progress" : "retrying (attempt " + (st.attempts() + 1) + ")");
+            }
+        }
+        return sb.toString();
+    }
+
+    // What the Trello / Xero buttons do now that Create Package queues the work
+    private static String queueIntegration(Outbox outbox, int quoteNumber, Outbox.Kind kind) {
+        Outbox.Status st = outbox.status(quoteNumber, kind);
+        if (st == null) {
+            outbox.enqueue(quoteNumber, kind);
+            return "Queued. It will be created in the background.";
+        }
+        return switch (st.state()) {
+            case DONE -> "Already created: " + st.result();
+            case PENDING -> "Already in progress" + (st.error() != null ? " (last error: " + st.error() + ")" : "") + ".";
+            case FAILED -> {
+                outbox.retry(quoteNumber, kind);
+                yield "Previous attempts failed (" + st.error() + "). Trying again in the background.";
+            }
+        };
+    }
+
  // --- tiny helpers so we can call alert(...), alertInfo(...), alertError(...)
     private void alert(String title, String content) {
         Alert a = new Alert(Alert.AlertType.INFORMATION);
@@ -0,0 +1,264 @@
+package com.easyread.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Keeps one API's calls inside its rate limits. There is one shared scheduler per API
+ * (see {@link #trello()} and {@link #xero()}), used by every client of that API.
+ *
+ * Before each call a token is taken from a bucket sized to the API's published limit.
+ * When none is left, callers queue in arrival order rather than fail. The bucket is
+ * kept honest by the server's "remaining" headers: if the server says fewer calls are
+ * left than we think, we believe it, and at zero everyone waits for the window to roll.
+ *
+ * A 429 is retried after the server's Retry-After, or else after a jittered
+ * exponential backoff, and pauses the whole queue meanwhile; a 503 is too, but only for
+ * calls that are safe to send twice (a 503 may come after the server acted on it).
+ * After MAX_ATTEMPTS the last response is handed back to the caller as usual.
+ *
+ * Waiting callers hold no lock: the head of the queue sleeps on a condition, the rest
+ * wait their turn behind it, so reading a response's headers never queues behind them.
+ */
+public final class RateLimitScheduler {
+
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long BASE_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    /** A "calls remaining" response header, and how long until it resets once at zero (null: unknown). */
+    public record RemainingHeader(String name, Duration resetAfter) {}
+
+    /** One attempt at the call. */
+    public interface Attempt<R> {
+        R send() throws IOException;
+    }
+
+    /** What's been going on, for logs and diagnostics. */
+    public record Metrics(String api, int queuedNow, long requests, long queued,
+                          long throttled, long retries, long waitedMillis) {}
+
+    // Trello: 100 requests per 10 s per token; keep a little headroom
+    private static final RateLimitScheduler TRELLO = new RateLimitScheduler("Trello",
+            90, Duration.ofSeconds(10), 0,
+            List.of(new RemainingHeader("x-rate-limit-api-token-remaining", Duration.ofSeconds(10)),
+                    new RemainingHeader("x-rate-limit-api-key-remaining", Duration.ofSeconds(10))));
+
+    // Xero: 60 per minute and 5,000 per day per organisation, at most 5 calls in flight
+    private static final RateLimitScheduler XERO = new RateLimitScheduler("Xero",
+            60, Duration.ofMinutes(1), 5,
+            List.of(new RemainingHeader("X-MinLimit-Remaining", Duration.ofMinutes(1)),
+                    new RemainingHeader("X-AppMinLimit-Remaining", Duration.ofMinutes(1)),
+                    new RemainingHeader("X-DayLimit-Remaining", null)));
+
+    public static RateLimitScheduler trello() {
+        return TRELLO;
+    }
+
+    public static RateLimitScheduler xero() {
+        return XERO;
+    }
+
+    private final String api;
+    private final double capacity;
+    private final double tokensPerMilli;
+    private final Semaphore inFlight;   // null = no concurrency limit
+    private final List<RemainingHeader> remainingHeaders;
+
+    // guarded by lock. Callers take numbered tickets and are served in that order,
+    // which is what makes the queue FIFO; waiting releases the lock.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private double tokens;
+    private long refilledAt;
+    private long nextTicket;
+    private long serving;
+    private final Set<Long> abandoned = new HashSet<>();   // tickets whose callers were interrupted
+    private volatile long pausedUntil;
+
+    private final AtomicInteger queuedNow = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong waitedMillis = new AtomicLong();
+
+    /**
+     * @param perWindow      calls allowed per window
+     * @param window         the limit's window
+     * @param maxConcurrent  calls allowed in flight at once, 0 for no limit
+     */
+    public RateLimitScheduler(String api, int perWindow, Duration window, int maxConcurrent,
+                              List<RemainingHeader> remainingHeaders) {
+        this.api = api;
+        this.capacity = perWindow;
+        this.tokensPerMilli = perWindow / (double) window.toMillis();
+        this.inFlight = (maxConcurrent > 0) ? new Semaphore(maxConcurrent, true) : null;
+        this.remainingHeaders = List.copyOf(remainingHeaders);
+        this.tokens = perWindow;
+        this.refilledAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Make the call once a token is available, retrying on 429 (and 503 if safe).
+     *
+     * @param safeToRepeat true if sending the call twice does no harm: anything but a
+     *                     POST, or a POST the server de-duplicates (an idempotency key)
+     * @param status       how to read a response's status code
+     * @param header       how to read a response header (null when absent)
+     */
+    public <R> R execute(Attempt<R> attempt, boolean safeToRepeat, ToIntFunction<R> status,
+                         BiFunction<R, String, String> header) throws IOException {
+        requests.incrementAndGet();
+        for (int n = 1; ; n++) {
+            acquire();
+            R response;
+            if (inFlight != null) inFlight.acquireUninterruptibly();
+            try {
+                response = attempt.send();
+            } finally {
+                if (inFlight != null) inFlight.release();
+            }
+
+            adaptTo(response, header);
+
+            int code = status.applyAsInt(response);
+            boolean retry = code == 429 || (code == 503 && safeToRepeat);
+            if (!retry || n == MAX_ATTEMPTS) {
+                return response;
+            }
+
+            throttled.incrementAndGet();
+            retries.incrementAndGet();
+            long delay = retryDelay(header.apply(response, "Retry-After"), n);
+            System.out.println("[" + api + "] HTTP " + code + ", retrying in " + delay + " ms (attempt " + n + ")");
+            if (response instanceof Closeable c) {
+                c.close();
+            }
+            pauseFor(delay);
+        }
+    }
+
+    public Metrics metrics() {
+        return new Metrics(api, queuedNow.get(), requests.get(), queued.get(),
+                throttled.get(), retries.get(), waitedMillis.get());
+    }
+
+    // ---- Bucket ----
+
+    private void acquire() throws IOException {
+        long arrived = System.currentTimeMillis();
+        boolean waited = false;
+        queuedNow.incrementAndGet();
+        try {
+            lock.lockInterruptibly();
+            long ticket = nextTicket++;
+            try {
+                while (true) {
+                    if (ticket != serving) {
+                        // someone ahead of us is still waiting for a token
+                        waited = true;
+                        changed.await();
+                        continue;
+                    }
+                    long now = System.currentTimeMillis();
+                    refill(now);
+                    long wait = Math.max(pausedUntil - now,
+                            tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerMilli));
+                    if (wait <= 0) {
+                        tokens -= 1;
+                        break;
+                    }
+                    waited = true;
+                    changed.awaitNanos(TimeUnit.MILLISECONDS.toNanos(wait));
+                }
+            } catch (InterruptedException e) {
+                if (ticket != serving) abandoned.add(ticket);   // the head skips it
+                throw e;
+            } finally {
+                if (ticket == serving) passTurn();
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the " + api + " rate limit");
+        } finally {
+            queuedNow.decrementAndGet();
+        }
+        if (waited) {
+            queued.incrementAndGet();
+            waitedMillis.addAndGet(System.currentTimeMillis() - arrived);
+        }
+    }
+
+    // The head is done: wake the next ticket, skipping any that gave up. Caller holds lock.
+    private void passTurn() {
+        serving++;
+        while (abandoned.remove(serving)) serving++;
+        changed.signalAll();
+    }
+
+    // caller holds lock
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerMilli);
+        refilledAt = now;
+    }
+
+    // Trust the server's count over ours; at zero, hold everything until it resets
+    private <R> void adaptTo(R response, BiFunction<R, String, String> header) {
+        for (RemainingHeader h : remainingHeaders) {
+            String v = header.apply(response, h.name());
+            if (v == null) continue;
+            int remaining;
+            try {
+                remaining = Integer.parseInt(v.trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            lock.lock();
+            try {
+                refill(System.currentTimeMillis());
+                tokens = Math.min(tokens, remaining);
+            } finally {
+                lock.unlock();
+            }
+            if (remaining <= 0 && h.resetAfter() != null) {
+                pauseFor(h.resetAfter().toMillis());
+            }
+        }
+    }
+
+    private void pauseFor(long millis) {
+        long until = System.currentTimeMillis() + millis;
+        synchronized (this) {
+            if (until > pausedUntil) pausedUntil = until;
+        }
+    }
+
+    private static long retryDelay(String retryAfter, int attempt) {
+        if (retryAfter != null) {
+            try {
+                return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+            } catch (NumberFormatException ignored) {
+                // an HTTP date; fall through to our own backoff
+            }
+        }
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        // "equal jitter": at least half the step, so retries spread out but still back off
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+}
@@ -0,0 +1,202 @@
+package com.easyread.http;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request body of the form head + file + tail (e.g. a multipart upload), streamed
+ * from disk in fixed-size chunks as the connection asks for them.
+ *
+ * The length is known up front, so it goes out as a plain Content-Length upload and
+ * never needs buffering. At most a few chunks are in memory at once, whatever the file
+ * size. Every subscription re-opens the file, so a retried request streams it again
+ * from disk. Progress is reported per chunk handed to the connection, and the upload
+ * can be cancelled, which fails the request with an IOException.
+ */
+public final class StreamingFileBody implements HttpRequest.BodyPublisher {
+
+    private static final int CHUNK = 64 * 1024;
+
+    /** Called as bytes are sent (from the HTTP client's threads). */
+    public interface Progress {
+        void update(long sentBytes, long totalBytes);
+    }
+
+    /** Lets someone else stop an upload that's under way. */
+    public static final class Cancellation {
+        private volatile boolean cancelled;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final byte[] head;
+    private final Path file;
+    private final long fileSize;
+    private final byte[] tail;
+    private final Progress progress;
+    private final Cancellation cancellation;
+
+    public StreamingFileBody(byte[] head, Path file, byte[] tail,
+                             Progress progress, Cancellation cancellation) throws IOException {
+        this.head = head;
+        this.file = file;
+        this.fileSize = Files.size(file);
+        this.tail = tail;
+        this.progress = progress;
+        this.cancellation = cancellation;
+    }
+
+    @Override
+    public long contentLength() {
+        return head.length + fileSize + tail.length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Upload upload = new Upload(subscriber);
+        subscriber.onSubscribe(upload);
+    }
+
+    // One pass over head, file and tail, driven by the subscriber's demand
+    private final class Upload implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger draining = new AtomicInteger();
+        private volatile boolean done;
+
+        private FileChannel channel;
+        private int stage;          // 0 head, 1 file, 2 tail, 3 finished
+        private long sent;
+        private long fileSent;
+
+        Upload(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            closeChannel();
+        }
+
+        // Only one thread emits at a time; others just note that there's more to do
+        private void drain() {
+            if (draining.getAndIncrement() != 0) return;
+            do {
+                while (!done && demand.get() > 0) {
+                    ByteBuffer next;
+                    try {
+                        next = nextChunk();
+                    } catch (IOException e) {
+                        fail(e);
+                        return;
+                    }
+                    if (next == null) {
+                        done = true;
+                        closeChannel();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    sent += next.remaining();
+                    subscriber.onNext(next);
+                    if (progress != null) progress.update(sent, contentLength());
+                }
+            } while (draining.decrementAndGet() != 0);
+        }
+
+        // null once everything has been sent
+        private ByteBuffer nextChunk() throws IOException {
+            if (cancellation != null && cancellation.isCancelled()) {
+                throw new IOException("Upload of " + file.getFileName() + " cancelled");
+            }
+            while (true) {
+                switch (stage) {
+                    case 0 -> {
+                        stage = 1;
+                        if (head.length > 0) return ByteBuffer.wrap(head);
+                    }
+                    case 1 -> {
+                        // Content-Length was promised from the size at construction, so send
+                        // exactly that many bytes: a file that has since shrunk or grown fails
+                        // the upload rather than sending a body of the wrong length
+                        long left = fileSize - fileSent;
+                        if (left > 0) {
+                            if (channel == null) {
+                                channel = FileChannel.open(file, StandardOpenOption.READ);
+                            }
+                            // the connection may still hold earlier chunks, so each gets its
+                            // own buffer, no bigger than what's left to send
+                            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(CHUNK, left));
+                            while (buf.hasRemaining()) {
+                                if (channel.read(buf) < 0) {
+                                    throw new IOException(file.getFileName() + " shrank while uploading: expected "
+                                            + fileSize + " bytes, found " + (fileSent + buf.position()));
+                                }
+                            }
+                            fileSent += buf.position();
+                            return buf.flip();
+                        }
+                        if (channel != null && channel.read(ByteBuffer.allocate(1)) > 0) {
+                            throw new IOException(file.getFileName() + " grew while uploading: expected "
+                                    + fileSize + " bytes");
+                        }
+                        closeChannel();
+                        stage = 2;
+                    }
+                    case 2 -> {
+                        stage = 3;
+                        if (tail.length > 0) return ByteBuffer.wrap(tail);
+                    }
+                    default -> {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (done) return;
+            done = true;
+            closeChannel();
+            subscriber.onError(t);
+        }
+
+        private void closeChannel() {
+            FileChannel ch = channel;
+            channel = null;
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                    // read-only; nothing to lose
+                }
+            }
+        }
+    }
+}
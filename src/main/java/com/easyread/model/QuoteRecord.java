@@ -15,4 +15,10 @@ public class QuoteRecord {
 
     public String attachedFilePath;   // where the client's doc lives on disk
     public String jobFolderPath;      // folder we made for this quote
+
+    public long createdAt;            // epoch millis when saved (0 on quotes from before this field)
+
+    public String xeroQuoteId;        // the draft quote made in Xero (null until then)
+    public String xeroStatus;         // DRAFT, SENT, ACCEPTED, DECLINED, INVOICED... as Xero last said
+    public long xeroUpdatedAt;        // epoch millis of Xero's UpdatedDateUTC for that status (0 = unknown)
 }
@@ -0,0 +1,168 @@
+package com.easyread.outbox;
+
+import com.easyread.storage.AtomicFiles;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What we've already done in Trello and Xero for each quote, so a retry or a second
+ * click reuses the card or draft quote made the first time instead of making another.
+ *
+ * Entries are keyed by (quoteNumber, integration, operation), e.g. (5462, "xero",
+ * "quote"), and hold the remote id. A STARTED entry is written before the remote call
+ * and DONE (with the id) after it, so "started but never finished" is visible after a
+ * crash. Lookups are one hash map get; every write is one fsynced line appended to
+ * DATA_DIR/idempotency.jsonl, compacted to one line per entry on open.
+ *
+ * One instance per file, shared by every (JPro) session (see open()), so a second
+ * session's compaction can't swap the file out from under the first.
+ */
+public class IdempotencyLedger {
+
+    private static final Map<String, IdempotencyLedger> OPEN = new ConcurrentHashMap<>();
+
+    public enum State { STARTED, DONE }
+
+    public record Entry(int quoteNumber, String integration, String operation,
+                        State state, String remoteId, long updatedAt) {
+
+        String key() {
+            return key(quoteNumber, integration, operation);
+        }
+
+        static String key(int quoteNumber, String integration, String operation) {
+            return quoteNumber + "|" + integration + "|" + operation;
+        }
+
+        public boolean isDone() {
+            return state == State.DONE;
+        }
+
+        private JSONObject toJson() {
+            return new JSONObject()
+                    .put("quote", quoteNumber)
+                    .put("integration", integration)
+                    .put("op", operation)
+                    .put("state", state.name())
+                    .put("id", remoteId == null ? JSONObject.NULL : remoteId)
+                    .put("at", updatedAt);
+        }
+
+        private static Entry fromJson(JSONObject o) {
+            return new Entry(
+                    o.getInt("quote"),
+                    o.getString("integration"),
+                    o.getString("op"),
+                    State.valueOf(o.getString("state")),
+                    o.isNull("id") ? null : o.optString("id", null),
+                    o.optLong("at", 0));
+        }
+    }
+
+    private final Path file;
+    private final FileChannel log;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** The shared ledger for this file. */
+    public static IdempotencyLedger open(Path file) {
+        return OPEN.computeIfAbsent(file.toAbsolutePath().normalize().toString(), k -> new IdempotencyLedger(file));
+    }
+
+    private IdempotencyLedger(Path file) {
+        this.file = file;
+        try {
+            replay();
+            compact();
+            this.log = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open idempotency ledger " + file, e);
+        }
+    }
+
+    /** The entry for this operation, or null if it was never attempted. */
+    public Entry get(int quoteNumber, String integration, String operation) {
+        return entries.get(Entry.key(quoteNumber, integration, operation));
+    }
+
+    /** The remote id if the operation finished, otherwise null. */
+    public String doneId(int quoteNumber, String integration, String operation) {
+        Entry e = get(quoteNumber, integration, operation);
+        return (e != null && e.isDone()) ? e.remoteId() : null;
+    }
+
+    /**
+     * A key that's the same every time this operation is attempted, including after a
+     * restart, for APIs that de-duplicate on one (Xero's Idempotency-Key header).
+     */
+    public static String idempotencyKey(int quoteNumber, String integration, String operation) {
+        String name = "easyread:" + Entry.key(quoteNumber, integration, operation);
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /** Note that the remote call is about to be made. Keeps an existing DONE entry. */
+    public void started(int quoteNumber, String integration, String operation) {
+        String key = Entry.key(quoteNumber, integration, operation);
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) return;   // already STARTED, or DONE
+            append(new Entry(quoteNumber, integration, operation, State.STARTED, null, System.currentTimeMillis()));
+        }
+    }
+
+    /** Record that the operation succeeded, with the id the remote side gave it. */
+    public synchronized void done(int quoteNumber, String integration, String operation, String remoteId) {
+        append(new Entry(quoteNumber, integration, operation, State.DONE, remoteId, System.currentTimeMillis()));
+    }
+
+    // ---- Persistence ----
+
+    // caller holds the lock
+    private void append(Entry e) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap((e.toJson() + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) log.write(buf);
+            log.force(false);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not write idempotency ledger " + file, ex);
+        }
+        entries.put(e.key(), e);
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(file)) return;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            try {
+                Entry e = Entry.fromJson(new JSONObject(line));
+                entries.put(e.key(), e);
+            } catch (RuntimeException ex) {
+                // a torn last line from a crash mid-write
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        if (entries.isEmpty()) return;
+        List<Entry> all = new ArrayList<>(entries.values());
+        all.sort(Comparator.comparingInt(Entry::quoteNumber)
+                .thenComparing(Entry::integration)
+                .thenComparing(Entry::operation));
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : all) sb.append(e.toJson()).append('\n');
+        AtomicFiles.writeString(file, sb.toString());
+    }
+}
@@ -0,0 +1,295 @@
+package com.easyread.outbox;
+
+import com.easyread.storage.AtomicFiles;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Durable queue of the slow things a quote triggers (Trello card, Xero quote), so
+ * Create Package can return straight away and the work survives a restart.
+ *
+ * Each operation is keyed by quote number + kind. Every change of state is appended
+ * to DATA_DIR/outbox.jsonl as one JSON line, and fsynced before it counts; on open
+ * the last line per key wins and the file is rewritten with just those. Anything
+ * still PENDING is picked up again by the worker pool, with backoff between attempts,
+ * until it succeeds or runs out of attempts (FAILED, which can be retried by hand).
+ *
+ * Delivery is at-least-once: if the app dies after a call succeeded but before DONE
+ * was written, the call runs again on restart.
+ *
+ * One instance per file, shared by every (JPro) session in this JVM (see open()): two
+ * on the same file would each run every pending operation, and one's compaction would
+ * leave the other appending to a file that's no longer there.
+ */
+public class Outbox {
+
+    public enum Kind { TRELLO_CARD, XERO_QUOTE }
+
+    public enum State { PENDING, DONE, FAILED }
+
+    /** Where one operation is up to. result is e.g. the Trello card id or Xero QuoteID. */
+    public record Status(int quoteNumber, Kind kind, State state, int attempts,
+                         String result, String error, long updatedAt) {
+
+        String key() {
+            return key(quoteNumber, kind);
+        }
+
+        static String key(int quoteNumber, Kind kind) {
+            return quoteNumber + "|" + kind;
+        }
+
+        private JSONObject toJson() {
+            return new JSONObject()
+                    .put("quote", quoteNumber)
+                    .put("kind", kind.name())
+                    .put("state", state.name())
+                    .put("attempts", attempts)
+                    .put("result", result == null ? JSONObject.NULL : result)
+                    .put("error", error == null ? JSONObject.NULL : error)
+                    .put("at", updatedAt);
+        }
+
+        private static Status fromJson(JSONObject o) {
+            return new Status(
+                    o.getInt("quote"),
+                    Kind.valueOf(o.getString("kind")),
+                    State.valueOf(o.getString("state")),
+                    o.optInt("attempts", 0),
+                    o.isNull("result") ? null : o.optString("result", null),
+                    o.isNull("error") ? null : o.optString("error", null),
+                    o.optLong("at", 0));
+        }
+    }
+
+    /** Does the work for one quote; returns something worth showing (an id), or null. */
+    public interface Handler {
+        String run(int quoteNumber) throws Exception;
+    }
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_DELAY_MILLIS = 5_000;
+    private static final long MAX_DELAY_MILLIS = 10 * 60_000;
+    private static final int WORKER_THREADS = 2;
+
+    private static final Map<String, Outbox> OPEN = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final FileChannel log;
+    private final Map<String, Status> statuses = new ConcurrentHashMap<>();
+    private final Map<Kind, Handler> handlers = new EnumMap<>(Kind.class);
+    private final List<Consumer<Status>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService workers;
+    private volatile boolean started;
+
+    /** The shared outbox for this file. */
+    public static Outbox open(Path file) {
+        return OPEN.computeIfAbsent(file.toAbsolutePath().normalize().toString(),
+                k -> new Outbox(file, WORKER_THREADS));
+    }
+
+    private Outbox(Path file, int workerThreads) {
+        this.file = file;
+        try {
+            replay();
+            compact();
+            this.log = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open outbox " + file, e);
+        }
+
+        this.workers = Executors.newScheduledThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "outbox-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Set the handler for a kind. Call before start(). */
+    public synchronized void register(Kind kind, Handler handler) {
+        handlers.put(kind, handler);
+    }
+
+    /** Start working: picks up whatever was still pending from last time. Once per process. */
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        for (Status s : statuses.values()) {
+            if (s.state() == State.PENDING) schedule(s.key(), 0);
+        }
+    }
+
+    /** Called (on a worker thread) every time an operation changes state. */
+    public void addListener(Consumer<Status> listener) {
+        listeners.add(listener);
+    }
+
+    /** Stop telling a listener, e.g. because its session closed. */
+    public void removeListener(Consumer<Status> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue an operation. Does nothing and returns false if it's already pending or
+     * done; use retry() for one that failed.
+     */
+    public boolean enqueue(int quoteNumber, Kind kind) {
+        String key = Status.key(quoteNumber, kind);
+        synchronized (this) {
+            if (statuses.containsKey(key)) return false;
+            record(new Status(quoteNumber, kind, State.PENDING, 0, null, null, System.currentTimeMillis()));
+            // under the lock, so start() can't schedule it a second time
+            if (started) schedule(key, 0);
+        }
+        return true;
+    }
+
+    /** Put a FAILED operation back in the queue with a fresh set of attempts. */
+    public boolean retry(int quoteNumber, Kind kind) {
+        String key = Status.key(quoteNumber, kind);
+        synchronized (this) {
+            Status s = statuses.get(key);
+            if (s == null || s.state() != State.FAILED) return false;
+            record(new Status(quoteNumber, kind, State.PENDING, 0, null, s.error(), System.currentTimeMillis()));
+            if (started) schedule(key, 0);
+        }
+        return true;
+    }
+
+    /** Status of one operation, or null if it was never queued. */
+    public Status status(int quoteNumber, Kind kind) {
+        return statuses.get(Status.key(quoteNumber, kind));
+    }
+
+    /** Everything queued for a quote, by kind. */
+    public Map<Kind, Status> statusOf(int quoteNumber) {
+        Map<Kind, Status> out = new EnumMap<>(Kind.class);
+        for (Kind k : Kind.values()) {
+            Status s = status(quoteNumber, k);
+            if (s != null) out.put(k, s);
+        }
+        return out;
+    }
+
+    // ---- Working ----
+
+    private void schedule(String key, long delayMillis) {
+        workers.schedule(() -> runOnce(key), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runOnce(String key) {
+        Status s = statuses.get(key);
+        if (s == null || s.state() != State.PENDING) return;
+
+        Handler handler;
+        synchronized (this) {
+            handler = handlers.get(s.kind());
+        }
+        int attempt = s.attempts() + 1;
+        try {
+            if (handler == null) {
+                throw new IllegalStateException("No handler registered for " + s.kind());
+            }
+            String result = handler.run(s.quoteNumber());
+            record(new Status(s.quoteNumber(), s.kind(), State.DONE, attempt, result, null, System.currentTimeMillis()));
+            System.out.println("[outbox] " + key + " done" + (result != null ? ": " + result : ""));
+        } catch (Exception e) {
+            Throwable cause = unwrap(e);
+            cause.printStackTrace();
+            String error = String.valueOf(cause.getMessage());
+            if (attempt >= MAX_ATTEMPTS) {
+                record(new Status(s.quoteNumber(), s.kind(), State.FAILED, attempt, null, error, System.currentTimeMillis()));
+                System.out.println("[outbox] " + key + " failed after " + attempt + " attempts: " + error);
+            } else {
+                record(new Status(s.quoteNumber(), s.kind(), State.PENDING, attempt, null, error, System.currentTimeMillis()));
+                long delay = backoff(attempt);
+                System.out.println("[outbox] " + key + " attempt " + attempt + " failed, retrying in " + delay / 1000 + " s");
+                schedule(key, delay);
+            }
+        }
+    }
+
+    private static long backoff(int attempt) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof ExecutionException || e instanceof CompletionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    // ---- Persistence ----
+
+    // Append, fsync, then publish: a state nobody could recover isn't reported
+    private synchronized void record(Status s) {
+        try {
+            byte[] line = (s.toJson().toString() + "\n").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buf = ByteBuffer.wrap(line);
+            while (buf.hasRemaining()) log.write(buf);
+            log.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write outbox " + file, e);
+        }
+        statuses.put(s.key(), s);
+        for (Consumer<Status> l : listeners) {
+            try {
+                l.accept(s);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(file)) return;
+        int skipped = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            try {
+                Status s = Status.fromJson(new JSONObject(line));
+                statuses.put(s.key(), s);
+            } catch (RuntimeException e) {
+                skipped++;   // a torn last line from a crash mid-write
+            }
+        }
+        if (skipped > 0) {
+            System.out.println("[outbox] skipped " + skipped + " unreadable line(s) in " + file);
+        }
+    }
+
+    // one line per operation, in quote order
+    private void compact() throws IOException {
+        if (statuses.isEmpty()) return;
+        List<Status> all = new ArrayList<>(statuses.values());
+        all.sort(Comparator.comparingInt(Status::quoteNumber).thenComparing(Status::kind));
+
+        StringBuilder sb = new StringBuilder();
+        for (Status s : all) sb.append(s.toJson()).append('\n');
+        AtomicFiles.writeString(file, sb.toString());
+    }
+}
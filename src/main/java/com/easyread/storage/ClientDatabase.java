@@ -1,16 +1,27 @@
 package com.easyread.storage;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.LinkedHashSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -26,7 +37,8 @@ import com.google.gson.reflect.TypeToken;
  *     "contacts": ["clients@example.com", "altperson@23red.com"],
  *     "jobs": [
  *       { "quoteNumber": 5462, "jobTitle": "Another Report?" }
- *     ]
+ *     ],
+ *     "xeroContactId": "4f2a..."
  *   },
  *   "NHS Region XYZ": {
  *     "contacts": ["comms@nhsxyz.org.uk"],
@@ -35,22 +47,61 @@ import com.google.gson.reflect.TypeToken;
  *     ]
  *   }
  * }
+ *
+ * Thread-safe, because JPro web sessions share one instance (see open()).
+ * A ClientInfo is never changed once it is in the map: edits build a copy and
+ * swap it in, so readers can hold on to one without locking. Edits to the same
+ * company are serialised by a per-company lock stripe; edits to different
+ * companies run in parallel. snapshot() takes a consistent copy of everything.
  */
-public class ClientDatabase {
+public final class ClientDatabase {
 
     // ---- Inner classes that define the structure we store ----
 
+    // Treat instances handed out by this class as read-only (see class comment).
     public static class ClientInfo {
         // unique emails for that company
         public Set<String> contacts = new LinkedHashSet<>();
 
         // running log of what we've quoted for them
         public List<JobInfo> jobs = new ArrayList<>();
+
+        // the matching Xero contact, once the contact mirror has found one (else null)
+        public String xeroContactId;
+
+        // fresh collections to edit before swapping the copy into the map
+        ClientInfo copy() {
+            ClientInfo c = new ClientInfo();
+            c.contacts = new LinkedHashSet<>(contacts);
+            c.jobs = new ArrayList<>(jobs);
+            c.xeroContactId = xeroContactId;
+            return c;
+        }
     }
 
     public static class JobInfo {
         public int quoteNumber;
         public String jobTitle;
+
+        JobInfo() {}
+
+        JobInfo(int quoteNumber, String jobTitle) {
+            this.quoteNumber = quoteNumber;
+            this.jobTitle = jobTitle;
+        }
+    }
+
+    // Where a quote number lives in the CRM (see findJob)
+    public static class JobLocation {
+        public final String companyName;
+        public final JobInfo job;
+        final int position;   // index in that company's published jobs list
+
+        JobLocation(String companyName, JobInfo job, int position) {
+            this.companyName = companyName;
+            this.job = job;
+            this.position = position;
+        }
     }
 
     // ---- Fields ----
@@ -58,13 +109,56 @@ public class ClientDatabase {
     private final String dbPath;
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
+    // one instance per file, shared by every (JPro) session in this JVM
+    private static final Map<String, ClientDatabase> OPEN = new ConcurrentHashMap<>();
+
     // Map of companyName -> info (contacts + jobs)
-    private Map<String, ClientInfo> clientsByName = new LinkedHashMap<>();
+    private final Map<String, ClientInfo> clientsByName = new ConcurrentHashMap<>();
+
+    // Edits to one company hold its stripe. Edits also hold the read side of
+    // snapshotLock, so snapshot() (the write side) sees no half-done rename.
+    private static final int STRIPES = 32;
+    private final Object[] stripes = new Object[STRIPES];
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    // Clients tab filter: substring search over names and contact emails
+    private final CompanySearchIndex searchIndex = new CompanySearchIndex();
+
+    // Reverse lookups (email -> companies, quote number -> job), kept in step by
+    // publish()/unpublish(). Guarded by reverseLock.
+    private final Object reverseLock = new Object();
+    private final Map<String, Set<String>> companiesByEmail = new HashMap<>();
+    private final IntObjectMap<JobLocation> jobsByQuote = new IntObjectMap<>();
+
+    // Edits mark the DB dirty; bursts within the window become one background write
+    private static final long SAVE_WINDOW_MILLIS = 300;
+    private final DebouncedWriter writer;
+
+    // Bumped on every change, so background CSV exports can skip when nothing changed
+    private final AtomicLong version = new AtomicLong();
+
+    // Background CSV re-export: many triggers in a row become one export
+    private static final long CSV_WINDOW_MILLIS = 1000;
+    private final DebouncedWriter csvExporter;
+    private volatile String csvExportPath;
+    private long csvExportedVersion = -1;   // only touched by the exporter
+    private String csvExportedPath;
 
     // ---- Constructor ----
 
-    public ClientDatabase(String dbPath) {
+    /** The shared CRM for this file; every session should go through here. */
+    public static ClientDatabase open(String dbPath) {
+        String key = Path.of(dbPath).toAbsolutePath().normalize().toString();
+        return OPEN.computeIfAbsent(key, k -> new ClientDatabase(dbPath));
+    }
+
+    private ClientDatabase(String dbPath) {
         this.dbPath = dbPath;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        this.writer = new DebouncedWriter("clients-db-writer", SAVE_WINDOW_MILLIS, this::writeToDisk);
+        this.csvExporter = new DebouncedWriter("clients-csv-exporter", CSV_WINDOW_MILLIS, this::exportIfChanged);
         load();
     }
 
@@ -74,44 +168,125 @@ public class ClientDatabase {
         try {
             if (!Files.exists(Paths.get(dbPath))) {
                 // file doesn't exist yet, start empty
-                clientsByName = new LinkedHashMap<>();
                 return;
             }
 
             String json = Files.readString(Paths.get(dbPath), StandardCharsets.UTF_8);
             if (json.isBlank()) {
-                clientsByName = new LinkedHashMap<>();
                 return;
             }
 
-            clientsByName = gson.fromJson(
+            Map<String, ClientInfo> loaded = gson.fromJson(
                     json,
                     new TypeToken<LinkedHashMap<String, ClientInfo>>(){}.getType()
             );
 
-            if (clientsByName == null) {
-                clientsByName = new LinkedHashMap<>();
+            if (loaded != null) {
+                clientsByName.putAll(loaded);
+                loaded.forEach((name, info) -> {
+                    searchIndex.put(name, info.contacts);
+                    reindex(name, null, info);
+                });
             }
 
         } catch (Exception e) {
             e.printStackTrace();
-            clientsByName = new LinkedHashMap<>();
+            clientsByName.clear();
+        }
+    }
+
+    // ---- Locking ----
+
+    // Swap in a company's new info and keep the indexes in step. Caller holds its stripe.
+    private void publish(String companyName, ClientInfo info) {
+        ClientInfo old = clientsByName.put(companyName, info);
+        // job and Xero link edits leave the searchable text alone
+        if (old == null || !old.contacts.equals(info.contacts)) {
+            searchIndex.put(companyName, info.contacts);
+        }
+        reindex(companyName, old, info);
+    }
+
+    private ClientInfo unpublish(String companyName) {
+        ClientInfo removed = clientsByName.remove(companyName);
+        if (removed != null) {
+            searchIndex.remove(companyName);
+            reindex(companyName, removed, null);
+        }
+        return removed;
+    }
+
+    // Swap one company's entries in the reverse indexes: O(size of that company)
+    private void reindex(String companyName, ClientInfo before, ClientInfo after) {
+        synchronized (reverseLock) {
+            if (before != null) {
+                for (String email : before.contacts) {
+                    Set<String> companies = companiesByEmail.get(emailKey(email));
+                    if (companies != null && companies.remove(companyName) && companies.isEmpty()) {
+                        companiesByEmail.remove(emailKey(email));
+                    }
+                }
+                for (JobInfo job : before.jobs) {
+                    JobLocation loc = jobsByQuote.get(job.quoteNumber);
+                    if (loc != null && loc.companyName.equals(companyName)) {
+                        jobsByQuote.remove(job.quoteNumber);
+                    }
+                }
+            }
+            if (after != null) {
+                for (String email : after.contacts) {
+                    companiesByEmail.computeIfAbsent(emailKey(email), k -> new LinkedHashSet<>()).add(companyName);
+                }
+                for (int i = 0; i < after.jobs.size(); i++) {
+                    JobInfo job = after.jobs.get(i);
+                    jobsByQuote.put(job.quoteNumber, new JobLocation(companyName, job, i));
+                }
+            }
+        }
+    }
+
+    private static String emailKey(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static int stripeIndex(String companyName) {
+        return (companyName.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private Object stripeFor(String companyName) {
+        return stripes[stripeIndex(companyName)];
+    }
+
+    // Run an edit with the company's stripe held
+    private <T> T withCompany(String companyName, Supplier<T> edit) {
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (stripeFor(companyName)) {
+                return edit.get();
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
         }
     }
 
     // ---- Save to disk ----
 
+    // Called by every mutator. Only marks the DB dirty; the write happens in the background.
     private void save() {
-        try {
-            File outFile = new File(dbPath);
-            outFile.getParentFile().mkdirs();
+        version.incrementAndGet();
+        writer.request();
+    }
 
-            String json = gson.toJson(clientsByName);
-            Files.writeString(Paths.get(dbPath), json, StandardCharsets.UTF_8);
+    /** Write any pending changes now (e.g. before the app exits). */
+    public void flush() {
+        writer.flush();
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    // Runs on the writer thread: serialise a consistent snapshot, then write it
+    // via temp file + rename.
+    private void writeToDisk() throws IOException {
+        String json = gson.toJson(snapshot());
+        AtomicFiles.writeString(Path.of(dbPath), json);
     }
 
     /**
@@ -132,23 +307,22 @@ public class ClientDatabase {
             return;
         }
 
-        // get or create the ClientInfo for this company
-        ClientInfo info = clientsByName.get(companyName);
-        if (info == null) {
-            info = new ClientInfo();
-            clientsByName.put(companyName, info);
-        }
+        // get-or-create, add contact and add job happen as one step
+        withCompany(companyName, () -> {
+            ClientInfo existing = clientsByName.get(companyName);
+            ClientInfo info = (existing != null) ? existing.copy() : new ClientInfo();
 
-        // add contact email to set
-        if (clientEmail != null && !clientEmail.isBlank()) {
-            info.contacts.add(clientEmail.trim());
-        }
+            // add contact email to set
+            if (clientEmail != null && !clientEmail.isBlank()) {
+                info.contacts.add(clientEmail.trim());
+            }
 
-        // add this job
-        JobInfo job = new JobInfo();
-        job.quoteNumber = quoteNumber;
-        job.jobTitle = (jobTitle != null ? jobTitle : "");
-        info.jobs.add(job);
+            // add this job
+            info.jobs.add(new JobInfo(quoteNumber, jobTitle != null ? jobTitle : ""));
+
+            publish(companyName, info);
+            return null;
+        });
 
         save();
     }
@@ -161,7 +335,7 @@ public class ClientDatabase {
         if (companyName == null || companyName.isBlank()) {
             return false;
         }
-        boolean removed = (clientsByName.remove(companyName) != null);
+        boolean removed = withCompany(companyName, () -> unpublish(companyName) != null);
         if (removed) {
             save();
         }
@@ -174,43 +348,69 @@ public class ClientDatabase {
      *
      * CSV columns:
      * Company,ContactEmail,QuoteNumber,JobTitle
+     *
+     * Rows are streamed straight to the file, so the contacts x jobs expansion is
+     * never held in memory. Runs on the calling thread; see requestCsvExport().
      */
     public void exportCsv(String csvPath) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Company,ContactEmail,QuoteNumber,JobTitle\n");
+        try {
+            writeCsv(csvPath, snapshot());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        for (Map.Entry<String, ClientInfo> entry : clientsByName.entrySet()) {
-            String companyName = entry.getKey();
-            ClientInfo info = entry.getValue();
+    /**
+     * Re-export the CSV in the background. Calls within a second of each other
+     * collapse into one export, which is skipped if nothing changed since the last.
+     */
+    public void requestCsvExport(String csvPath) {
+        csvExportPath = csvPath;
+        csvExporter.request();
+    }
 
-            // if no contacts yet, put an empty one just so rows still appear
-            List<String> contactsList = new ArrayList<>(info.contacts);
-            if (contactsList.isEmpty()) {
-                contactsList.add("");
-            }
+    private void exportIfChanged() throws IOException {
+        String path = csvExportPath;
+        long exportingVersion = version.get();
+        if (exportingVersion == csvExportedVersion && path.equals(csvExportedPath)) return;
+        writeCsv(path, snapshot());
+        csvExportedVersion = exportingVersion;
+        csvExportedPath = path;
+    }
 
-            for (String contact : contactsList) {
-                for (JobInfo job : info.jobs) {
-                    // escape any commas or quotes in job titles
-                    String safeJob = csvEscape(job.jobTitle);
-                    String safeCompany = csvEscape(companyName);
-                    String safeContact = csvEscape(contact);
+    // The snapshot is just references (published ClientInfos never change): the size
+    // of the CRM itself, not of the contacts x jobs rows.
+    private void writeCsv(String csvPath, Map<String, ClientInfo> companies) throws IOException {
+        AtomicFiles.write(Path.of(csvPath), raw -> {
+            Writer w = new BufferedWriter(new OutputStreamWriter(raw, StandardCharsets.UTF_8), 1 << 16);
+            w.write("Company,ContactEmail,QuoteNumber,JobTitle\n");
 
-                    sb.append(safeCompany).append(",");
-                    sb.append(safeContact).append(",");
-                    sb.append(job.quoteNumber).append(",");
-                    sb.append(safeJob).append("\n");
+            for (Map.Entry<String, ClientInfo> company : companies.entrySet()) {
+                String safeCompany = csvEscape(company.getKey());
+
+                // if no contacts yet, put an empty one just so rows still appear
+                Iterable<String> contactsList = company.getValue().contacts;
+                if (company.getValue().contacts.isEmpty()) {
+                    contactsList = List.of("");
                 }
-            }
-        }
 
-        try {
-            File outFile = new File(csvPath);
-            outFile.getParentFile().mkdirs();
-            Files.writeString(Paths.get(csvPath), sb.toString(), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+                for (String contact : contactsList) {
+                    String safeContact = csvEscape(contact);
+                    for (JobInfo job : company.getValue().jobs) {
+                        // escape any commas or quotes in job titles
+                        w.write(safeCompany);
+                        w.write(',');
+                        w.write(safeContact);
+                        w.write(',');
+                        w.write(Integer.toString(job.quoteNumber));
+                        w.write(',');
+                        w.write(csvEscape(job.jobTitle));
+                        w.write('\n');
+                    }
+                }
+            }
+            w.flush();
+        });
     }
 
     // basic CSV cell escaper (wrap in quotes if needed)
@@ -222,63 +422,190 @@ public class ClientDatabase {
     }
 
     /**
-     * For future UI / debugging
+     * Consistent point-in-time copy of the whole CRM, sorted by company name.
+     * Safe to iterate while other sessions keep editing.
+     */
+    public Map<String, ClientInfo> snapshot() {
+        snapshotLock.writeLock().lock();
+        try {
+            return Collections.unmodifiableMap(new TreeMap<>(clientsByName));
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Companies whose name or any contact email contains the query (case-insensitive),
+     * sorted by name. A blank query returns every company.
+     */
+    public List<String> searchCompanies(String query) {
+        return searchIndex.search(query);
+    }
+
+    /** Which company (and job) a quote number was recorded under, or null. */
+    public JobLocation findJob(int quoteNumber) {
+        synchronized (reverseLock) {
+            return jobsByQuote.get(quoteNumber);
+        }
+    }
+
+    /** Every company that has this contact email (case-insensitive), sorted by name. */
+    public List<String> companiesForEmail(String email) {
+        if (email == null || email.isBlank()) return List.of();
+        synchronized (reverseLock) {
+            Set<String> companies = companiesByEmail.get(emailKey(email));
+            return (companies == null) ? List.of() : companies.stream().sorted().toList();
+        }
+    }
+
+    /**
+     * The company to pre-fill when someone types this email on the quote form, or null
+     * if we don't know it. If several companies share the address, the one quoted most
+     * recently wins.
+     */
+    public String suggestCompanyForEmail(String email) {
+        String best = null;
+        int bestQuote = 0;
+        for (String company : companiesForEmail(email)) {
+            ClientInfo info = clientsByName.get(company);
+            int latest = (info == null || info.jobs.isEmpty())
+                    ? 0
+                    : info.jobs.get(info.jobs.size() - 1).quoteNumber;
+            if (best == null || latest > bestQuote) {
+                best = company;
+                bestQuote = latest;
+            }
+        }
+        return best;
+    }
+
+    /** Current info for one company (read-only), or null. */
+    public ClientInfo getClient(String companyName) {
+        return (companyName == null) ? null : clientsByName.get(companyName);
+    }
+
+    /**
+     * For future UI / debugging. Same as snapshot().
      */
     public Map<String, ClientInfo> getAllClients() {
-        return clientsByName;
+        return snapshot();
     }
     
  // ---- Client editing helpers ----
 
     public boolean renameCompany(String oldName, String newName) {
         if (oldName == null || newName == null || oldName.isBlank() || newName.isBlank()) return false;
-        if (!clientsByName.containsKey(oldName)) return false;
-        if (clientsByName.containsKey(newName)) return false; // avoid overwrite
-        ClientInfo info = clientsByName.remove(oldName);
-        clientsByName.put(newName, info);
-        save();
-        return true;
+
+        // hold both stripes, lower index first so two renames can't deadlock
+        Object a = stripes[Math.min(stripeIndex(oldName), stripeIndex(newName))];
+        Object b = stripes[Math.max(stripeIndex(oldName), stripeIndex(newName))];
+        boolean renamed;
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (a) {
+                synchronized (b) {
+                    renamed = clientsByName.containsKey(oldName)
+                            && !clientsByName.containsKey(newName); // avoid overwrite
+                    if (renamed) {
+                        publish(newName, unpublish(oldName));
+                    }
+                }
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        if (renamed) save();
+        return renamed;
     }
 
     public boolean addContact(String companyName, String email) {
         if (companyName == null || email == null || companyName.isBlank() || email.isBlank()) return false;
-        ClientInfo info = clientsByName.get(companyName);
-        if (info == null) return false;
-        boolean added = info.contacts.add(email.trim());
+        boolean added = withCompany(companyName, () -> {
+            ClientInfo info = clientsByName.get(companyName);
+            if (info == null || info.contacts.contains(email.trim())) return false;
+            ClientInfo updated = info.copy();
+            updated.contacts.add(email.trim());
+            publish(companyName, updated);
+            return true;
+        });
         if (added) save();
         return added;
     }
 
+    /** Link a company to its Xero contact (null to unlink). False if nothing changed. */
+    public boolean setXeroContactId(String companyName, String contactId) {
+        if (companyName == null || companyName.isBlank()) return false;
+        boolean changed = withCompany(companyName, () -> {
+            ClientInfo info = clientsByName.get(companyName);
+            if (info == null || java.util.Objects.equals(info.xeroContactId, contactId)) return false;
+            ClientInfo updated = info.copy();
+            updated.xeroContactId = contactId;
+            publish(companyName, updated);
+            return true;
+        });
+        if (changed) save();
+        return changed;
+    }
+
     public boolean removeContact(String companyName, String email) {
         if (companyName == null || email == null || companyName.isBlank() || email.isBlank()) return false;
-        ClientInfo info = clientsByName.get(companyName);
-        if (info == null) return false;
-        boolean removed = info.contacts.remove(email.trim());
+        boolean removed = withCompany(companyName, () -> {
+            ClientInfo info = clientsByName.get(companyName);
+            if (info == null || !info.contacts.contains(email.trim())) return false;
+            ClientInfo updated = info.copy();
+            updated.contacts.remove(email.trim());
+            publish(companyName, updated);
+            return true;
+        });
         if (removed) save();
         return removed;
     }
 
     public boolean updateJobTitle(String companyName, int quoteNumber, String newTitle) {
         if (companyName == null || companyName.isBlank()) return false;
-        ClientInfo info = clientsByName.get(companyName);
-        if (info == null) return false;
-        for (JobInfo j : info.jobs) {
-            if (j.quoteNumber == quoteNumber) {
-                j.jobTitle = (newTitle != null ? newTitle : "");
-                save();
-                return true;
-            }
-        }
-        return false;
+        boolean updated = withCompany(companyName, () -> {
+            ClientInfo info = clientsByName.get(companyName);
+            int pos = jobPosition(companyName, info, quoteNumber);
+            if (pos < 0) return false;
+            ClientInfo copy = info.copy();
+            copy.jobs.set(pos, new JobInfo(quoteNumber, newTitle != null ? newTitle : ""));
+            publish(companyName, copy);
+            return true;
+        });
+        if (updated) save();
+        return updated;
     }
 
     public boolean removeJob(String companyName, int quoteNumber) {
         if (companyName == null || companyName.isBlank()) return false;
-        ClientInfo info = clientsByName.get(companyName);
-        if (info == null) return false;
-        boolean changed = info.jobs.removeIf(j -> j.quoteNumber == quoteNumber);
+        boolean changed = withCompany(companyName, () -> {
+            ClientInfo info = clientsByName.get(companyName);
+            if (jobPosition(companyName, info, quoteNumber) < 0) return false;
+            ClientInfo copy = info.copy();
+            copy.jobs.removeIf(j -> j.quoteNumber == quoteNumber);
+            publish(companyName, copy);
+            return true;
+        });
         if (changed) save();
         return changed;
     }
 
+    // Position of a quote in the company's job list, straight from the quote index;
+    // -1 if the company doesn't have it. Caller holds the company's stripe, so info
+    // is the published list the index positions refer to.
+    private int jobPosition(String companyName, ClientInfo info, int quoteNumber) {
+        if (info == null) return -1;
+        JobLocation loc = findJob(quoteNumber);
+        if (loc != null && loc.companyName.equals(companyName)
+                && loc.position < info.jobs.size() && info.jobs.get(loc.position) == loc.job) {
+            return loc.position;
+        }
+        // only reached for numbers not indexed under this company (e.g. a number
+        // hand-entered under two companies): fall back to a scan
+        for (int i = 0; i < info.jobs.size(); i++) {
+            if (info.jobs.get(i).quoteNumber == quoteNumber) return i;
+        }
+        return -1;
+    }
+
 }
@@ -0,0 +1,81 @@
+package com.easyread.storage;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind helper: request() marks something dirty and returns straight away;
+ * the task then runs once on a background thread after the window, however many
+ * requests came in meanwhile. Pending work is flushed when the JVM shuts down.
+ * A failed run is retried with a doubling delay (capped at MAX_RETRY_MILLIS), and
+ * logged once per run of failures rather than on every attempt.
+ */
+public final class DebouncedWriter {
+
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    private static final long MAX_RETRY_MILLIS = 5 * 60_000;
+
+    private final String name;
+    private final long windowMillis;
+    private final Task task;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final Object runLock = new Object();
+    private int failures;   // in a row; guarded by runLock
+
+    public DebouncedWriter(String threadName, long windowMillis, Task task) {
+        this.name = threadName;
+        this.windowMillis = windowMillis;
+        this.task = task;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, threadName + "-flush"));
+    }
+
+    /** Mark dirty. Cheap enough to call from the FX thread on every edit. */
+    public void request() {
+        if (pending.compareAndSet(false, true)) {
+            executor.schedule(this::runIfPending, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Run any pending write now, on the calling thread. */
+    public void flush() {
+        runIfPending();
+    }
+
+    private void runIfPending() {
+        synchronized (runLock) {
+            // cleared before running: edits made while we write schedule another run
+            if (!pending.getAndSet(false)) return;
+            try {
+                task.run();
+            } catch (Exception e) {
+                failures++;
+                if (failures == 1) {
+                    System.err.println("[" + name + "] Write failed; retrying until it works: " + e);
+                    e.printStackTrace();
+                }
+                // a read-only disk won't fix itself in a second: back off instead of spinning
+                long delay = Math.min(MAX_RETRY_MILLIS, windowMillis << Math.min(failures, 20));
+                if (pending.compareAndSet(false, true)) {
+                    executor.schedule(this::runIfPending, delay, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            if (failures > 0) {
+                System.out.println("[" + name + "] Write worked again after " + failures + " failed attempt(s)");
+                failures = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.easyread.storage;
+
+/**
+ * Minimal int -> object hash map (open addressing, linear probing), so lookups by
+ * quote number don't box every key into an Integer. Not thread-safe.
+ */
+final class IntObjectMap<V> {
+
+    private static final Object DELETED = new Object();
+
+    private int[] keys = new int[16];
+    private Object[] values = new Object[16];   // null = empty slot
+    private int size;
+    private int used;                           // live + deleted slots
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            Object v = values[i];
+            if (v == null) return null;
+            if (v != DELETED && keys[i] == key) return (V) v;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) throw new IllegalArgumentException("null values not supported");
+        if ((used + 1) * 4 >= keys.length * 3) rehash();
+
+        int mask = keys.length - 1;
+        int firstDeleted = -1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            Object v = values[i];
+            if (v == null) {
+                int slot = (firstDeleted >= 0) ? firstDeleted : i;
+                if (firstDeleted < 0) used++;
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return null;
+            }
+            if (v == DELETED) {
+                if (firstDeleted < 0) firstDeleted = i;
+            } else if (keys[i] == key) {
+                values[i] = value;
+                return (V) v;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            Object v = values[i];
+            if (v == null) return null;
+            if (v != DELETED && keys[i] == key) {
+                values[i] = DELETED;
+                size--;
+                return (V) v;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        // grow only if mostly live entries; otherwise just sweep out the tombstones
+        int capacity = (size * 2 >= oldKeys.length) ? oldKeys.length * 2 : oldKeys.length;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+        used = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object v = oldValues[i];
+            if (v != null && v != DELETED) {
+                int mask = capacity - 1;
+                int j = mix(oldKeys[i]) & mask;
+                while (values[j] != null) j = (j + 1) & mask;
+                keys[j] = oldKeys[i];
+                values[j] = v;
+                size++;
+                used++;
+            }
+        }
+    }
+
+    // quote numbers are sequential; spread them so they don't cluster
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -4,20 +4,76 @@ import com.easyread.model.QuoteRecord;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-// Handles reading & writing the quotes_db.json file on disk.
+// Handles reading & writing the quotes database on disk.
+//
+// quotes_db.json is the snapshot (same DatabaseWrapper shape as before). New quotes
+// are appended to quotes_db.json.journal, one compact JSON record per line, so adding a
+// quote is a small append however long the history gets. An edit to an existing quote
+// (e.g. its Xero status) is appended the same way, as the whole updated record, and
+// replaces the earlier copy on replay. A background thread folds the journal back
+// into the snapshot, which keeps startup replay short.
+//
+// With QUOTES_DB_FORMAT=binary the snapshot is quotes_db.json.bin instead (see
+// QuoteSnapshotFile): it is memory-mapped at startup and records are only decoded
+// when touched. Whichever snapshot is newer is loaded, so switching formats either
+// way is safe, and exportJson() still writes the JSON shape on demand.
 public class QuoteDatabase {
 
     private static final ObjectMapper mapper =
             new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
 
+    // journal records must stay on a single line
+    private static final ObjectMapper journalMapper = new ObjectMapper();
+
+    // fold the journal into the snapshot after this many appends...
+    private static final int COMPACT_EVERY = 500;
+    // ...or on this timer if anything is pending
+    private static final long COMPACT_PERIOD_MINUTES = 5;
+
+    // one instance per file, shared by every (JPro) session in this JVM
+    private static final Map<String, QuoteDatabase> OPEN = new ConcurrentHashMap<>();
+
     private final File dbFile;
+    private final Path binFile;
+    private final boolean binarySnapshots;
+    private final Path journalFile;
+    private final Path compactingFile;   // journal being folded in right now
     private int lastQuoteNumber;
     private List<QuoteRecord> quotes;
+    // quoteNumber -> position in quotes, read from the number column so a lookup
+    // decodes only the record it finds
+    private final Map<Integer, Integer> positions = new HashMap<>();
+    // xeroQuoteId -> position, read from the string column on the first lookup, then
+    // kept in step; null until then
+    private Map<String, Integer> xeroPositions;
+
+    private final QuoteNumberAllocator allocator;
+    private QuoteIndex index;            // built on the first query, then kept in step
+
+    private BufferedWriter journal;
+    private int appendsSinceCompact;
+    private boolean compactionQueued;
+    private final ScheduledExecutorService compactor;
 
     // Represents the structure we store in JSON.
     public static class DatabaseWrapper {
@@ -25,50 +81,377 @@ public class QuoteDatabase {
         public List<QuoteRecord> quotes;
     }
 
-    public QuoteDatabase(String filePath) {
+    /**
+     * The shared database for this file. Sessions must go through here so they all
+     * draw quote numbers from the same allocator.
+     */
+    public static QuoteDatabase open(String filePath) {
+        String key = Path.of(filePath).toAbsolutePath().normalize().toString();
+        return OPEN.computeIfAbsent(key, k -> new QuoteDatabase(filePath));
+    }
+
+    // A second, unshared instance on the same file: only for tests that reopen a file
+    // to check what was persisted, never while anything else is writing to it
+    static QuoteDatabase openUnshared(String filePath) {
+        return new QuoteDatabase(filePath);
+    }
+
+    private QuoteDatabase(String filePath) {
         this.dbFile = new File(filePath);
+        this.binFile = Path.of(filePath + ".bin");
+        this.journalFile = Path.of(filePath + ".journal");
+        this.compactingFile = Path.of(filePath + ".journal.compacting");
+        this.binarySnapshots = "binary".equalsIgnoreCase(System.getenv("QUOTES_DB_FORMAT"));
 
-        if (dbFile.exists()) {
-            // Load existing file
+        boolean loaded = false;
+        if (Files.exists(binFile)
+                && (!dbFile.exists() || binFile.toFile().lastModified() >= dbFile.lastModified())) {
             try {
-                DatabaseWrapper w = mapper.readValue(dbFile, DatabaseWrapper.class);
-                this.lastQuoteNumber = w.lastQuoteNumber;
-                this.quotes = (w.quotes != null) ? w.quotes : new ArrayList<>();
+                QuoteSnapshotFile.LazyList lazy = QuoteSnapshotFile.open(binFile);
+                this.lastQuoteNumber = lazy.lastQuoteNumber();
+                this.quotes = lazy;
+                loaded = true;
             } catch (IOException e) {
-                System.out.println("Couldn't read DB, starting fresh.");
+                System.out.println("Couldn't read binary snapshot, trying JSON. " + e.getMessage());
+            }
+        }
+
+        if (!loaded) {
+            if (dbFile.exists()) {
+                // Load existing file
+                try {
+                    DatabaseWrapper w = mapper.readValue(dbFile, DatabaseWrapper.class);
+                    this.lastQuoteNumber = w.lastQuoteNumber;
+                    this.quotes = (w.quotes != null) ? w.quotes : new ArrayList<>();
+                } catch (IOException e) {
+                    System.out.println("Couldn't read DB, starting fresh.");
+                    this.lastQuoteNumber = 0;
+                    this.quotes = new ArrayList<>();
+                }
+            } else {
+                // No file yet: start fresh and immediately create it
                 this.lastQuoteNumber = 0;
                 this.quotes = new ArrayList<>();
+                try {
+                    writeSnapshot(this.quotes, this.lastQuoteNumber);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
-        } else {
-            // No file yet: start fresh and immediately create it
-            this.lastQuoteNumber = 0;
-            this.quotes = new ArrayList<>();
-            saveDatabase();
+        }
+
+        // Anything appended since the last snapshot (an interrupted compaction first)
+        replayJournal();
+
+        this.allocator = new QuoteNumberAllocator(Path.of(filePath + ".counter"), lastQuoteNumber);
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "quotes-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compact,
+                COMPACT_PERIOD_MINUTES, COMPACT_PERIOD_MINUTES, TimeUnit.MINUTES);
+
+        if (binarySnapshots && !(quotes instanceof QuoteSnapshotFile.LazyList)) {
+            // first start in binary mode: convert the JSON snapshot in the background
+            synchronized (this) {
+                appendsSinceCompact++;
+                compactionQueued = true;
+            }
+            compactor.execute(this::compact);
         }
     }
 
-    // Get the number we'll assign next (e.g. 5462)
+    // The number we'll probably assign next (e.g. 5462). Display only: another
+    // session can take it first, so use reserveQuoteNumber() for anything real.
     public int getNextQuoteNumber() {
-        return lastQuoteNumber + 1;
+        return allocator.peekNext();
     }
 
-    // Add a new quote record and persist it
+    // Take a quote number for good (e.g. to name the job folder before saving)
+    public int reserveQuoteNumber() {
+        return allocator.reserve();
+    }
+
+    // Add a new quote record and persist it. Uses the record's reserved number
+    // if it has one, otherwise reserves a fresh one.
     public void addQuote(QuoteRecord record) {
-        record.quoteNumber = getNextQuoteNumber();
-        quotes.add(record);
-        lastQuoteNumber = record.quoteNumber;
-        saveDatabase();
+        if (record.quoteNumber <= 0) {
+            record.quoteNumber = allocator.reserve();
+        }
+        if (record.createdAt == 0) {
+            record.createdAt = System.currentTimeMillis();
+        }
+        synchronized (this) {
+            positions.put(record.quoteNumber, quotes.size());
+            if (xeroPositions != null && record.xeroQuoteId != null) {
+                xeroPositions.put(record.xeroQuoteId, quotes.size());
+            }
+            quotes.add(record);
+            lastQuoteNumber = Math.max(lastQuoteNumber, record.quoteNumber);
+            if (index != null) index.add(record);
+            appendToJournal(record);
+        }
+    }
+
+    // Change existing quotes. Each edit gets a copy of the record, so readers holding
+    // the old one never see a half-made change; the copy replaces it in the list and
+    // indexes and is journalled. Unknown quote numbers are skipped. Returns how many
+    // were updated.
+    public int updateQuotes(Map<Integer, Consumer<QuoteRecord>> edits) {
+        if (edits.isEmpty()) return 0;
+        int updated = 0;
+        synchronized (this) {
+            for (Map.Entry<Integer, Consumer<QuoteRecord>> e : edits.entrySet()) {
+                int pos = positionOf(e.getKey());
+                if (pos < 0) continue;
+                QuoteRecord old = quotes.get(pos);
+                QuoteRecord copy = journalMapper.convertValue(old, QuoteRecord.class);
+                e.getValue().accept(copy);
+                copy.quoteNumber = old.quoteNumber;   // the number is the key; it can't change
+
+                quotes.set(pos, copy);
+                if (xeroPositions != null && !Objects.equals(old.xeroQuoteId, copy.xeroQuoteId)) {
+                    if (old.xeroQuoteId != null) xeroPositions.remove(old.xeroQuoteId, pos);
+                    if (copy.xeroQuoteId != null) xeroPositions.put(copy.xeroQuoteId, pos);
+                }
+                if (index != null) {
+                    index.remove(old);
+                    index.add(copy);
+                }
+                appendToJournal(copy);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    // e.g. updateQuote(5462, r -> r.xeroStatus = "SENT"); false if there's no such quote
+    public boolean updateQuote(int quoteNumber, Consumer<QuoteRecord> edit) {
+        return updateQuotes(Map.of(quoteNumber, edit)) == 1;
+    }
+
+    // ---- Queries ----
+
+    // e.g. findByNumber(5462); null if there is no such quote
+    public synchronized QuoteRecord findByNumber(int quoteNumber) {
+        Integer pos = positions.get(quoteNumber);
+        return (pos == null) ? null : quotes.get(pos);
+    }
+
+    // the quote whose Xero draft this is; null if none
+    public synchronized QuoteRecord findByXeroQuoteId(String xeroQuoteId) {
+        if (xeroQuoteId == null) return null;
+        if (xeroPositions == null) {
+            // reads the one column, so polling Xero doesn't decode every record
+            xeroPositions = new HashMap<>();
+            for (int i = 0; i < quotes.size(); i++) {
+                String id = xeroQuoteIdAt(i);
+                if (id != null) xeroPositions.put(id, i);
+            }
+        }
+        Integer pos = xeroPositions.get(xeroQuoteId);
+        return (pos == null) ? null : quotes.get(pos);
+    }
+
+    // every quote for a company (case-insensitive), oldest first
+    public synchronized List<QuoteRecord> findByCompany(String companyName) {
+        return index().byCompany(companyName);
+    }
+
+    // every quote sent to one email address (case-insensitive), oldest first
+    public synchronized List<QuoteRecord> findByEmail(String clientEmail) {
+        return index().byEmail(clientEmail);
+    }
+
+    // quotes created in [fromMillis, toMillis), oldest first
+    public synchronized List<QuoteRecord> findCreatedBetween(long fromMillis, long toMillis) {
+        return index().createdBetween(fromMillis, toMillis);
+    }
+
+    // the n most recently created quotes, newest first
+    public synchronized List<QuoteRecord> latest(int n) {
+        return index().latest(n);
+    }
+
+    private QuoteIndex index() {
+        if (index == null) {
+            index = new QuoteIndex(quotes);
+        }
+        return index;
+    }
+
+    // ---- Journal ----
+
+    private void appendToJournal(QuoteRecord record) {
+        try {
+            if (journal == null) {
+                journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            journal.write(journalMapper.writeValueAsString(record));
+            journal.newLine();
+            journal.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        appendsSinceCompact++;
+        if (appendsSinceCompact >= COMPACT_EVERY && !compactionQueued) {
+            compactionQueued = true;
+            compactor.execute(this::compact);
+        }
+    }
+
+    private void replayJournal() {
+        // positions also means a record written twice (snapshot + journal after a
+        // crash mid-compaction) replaces the earlier copy instead of duplicating it
+        for (int i = 0; i < quotes.size(); i++) {
+            positions.put(quoteNumberAt(i), i);
+        }
+
+        int replayed = replayFile(compactingFile) + replayFile(journalFile);
+        appendsSinceCompact = replayed;
+        if (replayed > 0) {
+            System.out.println("Replayed " + replayed + " quote(s) from journal.");
+        }
     }
 
-    // Actually write to quotes_db.json
-    private void saveDatabase() {
+    private int replayFile(Path file) {
+        if (!Files.exists(file)) return 0;
+        int count = 0;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank()) continue;
+                QuoteRecord rec;
+                try {
+                    rec = journalMapper.readValue(line, QuoteRecord.class);
+                } catch (IOException e) {
+                    // a torn last line from a crash mid-append; everything before it is fine
+                    System.out.println("Skipping unreadable journal line in " + file.getFileName());
+                    continue;
+                }
+                Integer pos = positions.get(rec.quoteNumber);
+                if (pos != null) {
+                    quotes.set(pos, rec);
+                } else {
+                    positions.put(rec.quoteNumber, quotes.size());
+                    quotes.add(rec);
+                }
+                lastQuoteNumber = Math.max(lastQuoteNumber, rec.quoteNumber);
+                count++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return count;
+    }
+
+    // ---- Compaction ----
+
+    // Fold the journal into a fresh snapshot. Only the journal rotation happens under
+    // the lock; serialising the snapshot runs without blocking addQuote.
+    private void compact() {
+        List<QuoteRecord> copy;
+        int last;
+        synchronized (this) {
+            compactionQueued = false;
+            if (appendsSinceCompact == 0) return;
+            try {
+                rotateJournal();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            copy = copyOfQuotes();
+            last = lastQuoteNumber;
+            appendsSinceCompact = 0;
+        }
+
         try {
-            DatabaseWrapper w = new DatabaseWrapper();
-            w.lastQuoteNumber = this.lastQuoteNumber;
-            w.quotes = this.quotes;
-            mapper.writeValue(dbFile, w);
+            writeSnapshot(copy, last);
+            Files.deleteIfExists(compactingFile);
         } catch (IOException e) {
+            // compacting file stays behind and is replayed (or folded in) next time
             e.printStackTrace();
+            synchronized (this) {
+                appendsSinceCompact += 1;
+            }
+        }
+    }
+
+    // Move the live journal aside so new appends start a fresh file.
+    private void rotateJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (!Files.exists(journalFile)) return;
+
+        if (Files.exists(compactingFile)) {
+            // a previous compaction failed; keep its records and add ours after them
+            Files.write(compactingFile, Files.readAllBytes(journalFile), StandardOpenOption.APPEND);
+            Files.delete(journalFile);
+        } else {
+            Files.move(journalFile, compactingFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Export the whole history in the JSON snapshot shape (e.g. for backups or to
+    // hand over to another install). Safe to call in binary mode.
+    public void exportJson(Path target) throws IOException {
+        List<QuoteRecord> copy;
+        int last;
+        synchronized (this) {
+            copy = copyOfQuotes();
+            last = lastQuoteNumber;
+        }
+        writeJson(target, copy, last);
+    }
+
+    // Actually write the snapshot (quotes_db.json, or quotes_db.json.bin in binary mode)
+    private void writeSnapshot(List<QuoteRecord> records, int last) throws IOException {
+        if (binarySnapshots) {
+            QuoteSnapshotFile.write(binFile, records, last);
+        } else {
+            writeJson(dbFile.toPath(), records, last);
+        }
+    }
+
+    private static void writeJson(Path target, List<QuoteRecord> records, int last) throws IOException {
+        DatabaseWrapper w = new DatabaseWrapper();
+        w.lastQuoteNumber = last;
+        w.quotes = records;
+        AtomicFiles.write(target, out -> mapper.writeValue(out, w));
+    }
+
+    // Point-in-time copy that is safe to read off the lock. A snapshot-backed list
+    // is copied without decoding the records nobody has touched yet.
+    private List<QuoteRecord> copyOfQuotes() {
+        if (quotes instanceof QuoteSnapshotFile.LazyList lazy) {
+            return lazy.copyForWrite();
+        }
+        return new ArrayList<>(quotes);
+    }
+
+    private int positionOf(int quoteNumber) {
+        Integer pos = positions.get(quoteNumber);
+        return (pos == null) ? -1 : pos;
+    }
+
+    private int quoteNumberAt(int i) {
+        if (quotes instanceof QuoteSnapshotFile.LazyList lazy) {
+            return lazy.quoteNumberAt(i);
+        }
+        return quotes.get(i).quoteNumber;
+    }
+
+    private String xeroQuoteIdAt(int i) {
+        if (quotes instanceof QuoteSnapshotFile.LazyList lazy) {
+            return lazy.xeroQuoteIdAt(i);
         }
+        return quotes.get(i).xeroQuoteId;
     }
 }
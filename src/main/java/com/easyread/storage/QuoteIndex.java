@@ -0,0 +1,95 @@
+package com.easyread.storage;
+
+import com.easyread.model.QuoteRecord;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+// In-memory indexes over the quote history: hash lookups by company and email, plus
+// a sorted set by creation time for ranges and "latest N". Lookups by number or Xero
+// QuoteID don't need it: QuoteDatabase keeps those positions itself.
+// Not thread-safe on its own; QuoteDatabase guards every call.
+class QuoteIndex {
+
+    private static final Comparator<QuoteRecord> BY_CREATED =
+            Comparator.<QuoteRecord>comparingLong(r -> r.createdAt)
+                    .thenComparingInt(r -> r.quoteNumber);
+
+    private final Map<String, List<QuoteRecord>> byCompany = new HashMap<>();
+    private final Map<String, List<QuoteRecord>> byEmail = new HashMap<>();
+    private final NavigableSet<QuoteRecord> byCreated = new TreeSet<>(BY_CREATED);
+
+    QuoteIndex(List<QuoteRecord> quotes) {
+        for (QuoteRecord r : quotes) {
+            add(r);
+        }
+    }
+
+    void add(QuoteRecord r) {
+        addTo(byCompany, key(r.companyName), r);
+        addTo(byEmail, key(r.clientEmail), r);
+        byCreated.add(r);
+    }
+
+    void remove(QuoteRecord r) {
+        removeFrom(byCompany, key(r.companyName), r);
+        removeFrom(byEmail, key(r.clientEmail), r);
+        byCreated.remove(r);
+    }
+
+    List<QuoteRecord> byCompany(String companyName) {
+        return List.copyOf(byCompany.getOrDefault(key(companyName), List.of()));
+    }
+
+    List<QuoteRecord> byEmail(String email) {
+        return List.copyOf(byEmail.getOrDefault(key(email), List.of()));
+    }
+
+    // fromMillis inclusive, toMillis exclusive, oldest first
+    List<QuoteRecord> createdBetween(long fromMillis, long toMillis) {
+        if (fromMillis >= toMillis) return List.of();
+        return List.copyOf(byCreated.subSet(probe(fromMillis), true, probe(toMillis), false));
+    }
+
+    // newest first
+    List<QuoteRecord> latest(int n) {
+        List<QuoteRecord> out = new ArrayList<>(Math.max(0, Math.min(n, byCreated.size())));
+        Iterator<QuoteRecord> it = byCreated.descendingIterator();
+        while (out.size() < n && it.hasNext()) {
+            out.add(it.next());
+        }
+        return out;
+    }
+
+    // sorts before every real record with the same createdAt
+    private static QuoteRecord probe(long createdAt) {
+        QuoteRecord p = new QuoteRecord();
+        p.createdAt = createdAt;
+        p.quoteNumber = Integer.MIN_VALUE;
+        return p;
+    }
+
+    // companies / emails match case-insensitively, ignoring stray spaces
+    private static String key(String raw) {
+        return (raw == null) ? "" : raw.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static void addTo(Map<String, List<QuoteRecord>> index, String key, QuoteRecord r) {
+        if (key.isEmpty()) return;
+        index.computeIfAbsent(key, k -> new ArrayList<>()).add(r);
+    }
+
+    private static void removeFrom(Map<String, List<QuoteRecord>> index, String key, QuoteRecord r) {
+        List<QuoteRecord> list = index.get(key);
+        if (list == null) return;
+        list.remove(r);
+        if (list.isEmpty()) index.remove(key);
+    }
+}
@@ -0,0 +1,88 @@
+package com.easyread.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out quote numbers, each exactly once.
+ *
+ * In-process this is a single AtomicInteger, so concurrent sessions never block each
+ * other or see the same number. For durability the counter file holds a "ceiling" a
+ * little ahead of the last number handed out; only crossing that ceiling touches the
+ * disk. After a crash the next number resumes from the ceiling, so a few numbers may
+ * be skipped, but none is ever reused. A clean shutdown trims the ceiling back.
+ */
+public class QuoteNumberAllocator {
+
+    // how many numbers one durable write covers
+    private static final int LEASE = 16;
+
+    private final Path counterFile;
+    private final AtomicInteger counter;
+    private volatile int ceiling;
+
+    /**
+     * @param counterFile where the ceiling is stored
+     * @param floor       highest number already used (e.g. from the quotes DB)
+     */
+    public QuoteNumberAllocator(Path counterFile, int floor) {
+        this.counterFile = counterFile;
+        int start = Math.max(readCeiling(counterFile), floor);
+        this.counter = new AtomicInteger(start);
+        this.ceiling = start;
+
+        Thread trim = new Thread(this::trimLease, "quote-counter-trim");
+        Runtime.getRuntime().addShutdownHook(trim);
+    }
+
+    /** Take the next quote number. Never returns the same number twice, even across restarts. */
+    public int reserve() {
+        int n = counter.incrementAndGet();
+        if (n > ceiling) {
+            extendLease(n);
+        }
+        return n;
+    }
+
+    /** The number reserve() would most likely return next. Only a hint for display. */
+    public int peekNext() {
+        return counter.get() + 1;
+    }
+
+    private synchronized void extendLease(int n) {
+        if (n <= ceiling) return;   // another thread already covered it
+        int newCeiling = n + LEASE - 1;
+        try {
+            AtomicFiles.writeString(counterFile, Integer.toString(newCeiling));
+        } catch (IOException e) {
+            // Handing out n without persisting it could reuse it after a restart
+            throw new UncheckedIOException("Could not persist quote counter to " + counterFile, e);
+        }
+        ceiling = newCeiling;
+    }
+
+    private synchronized void trimLease() {
+        int used = counter.get();
+        if (used >= ceiling) return;
+        try {
+            AtomicFiles.writeString(counterFile, Integer.toString(used));
+            ceiling = used;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int readCeiling(Path file) {
+        try {
+            if (!Files.exists(file)) return 0;
+            return Integer.parseInt(Files.readString(file, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Couldn't read quote counter " + file + ", using the DB's last number.");
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.easyread.storage;
+
+import com.easyread.model.QuoteRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Compact binary snapshot of the quotes DB, read through a memory map.
+ *
+ * Layout (big-endian), one column after another:
+ *
+ *   header   magic, version, count, lastQuoteNumber,
+ *            #int columns, #double columns, #long columns, #string columns
+ *   int      count x int32 per column      (quoteNumber, finalWordCount)
+ *   double   count x float64 per column    (estimatedHours, finalPriceGBP)
+ *   long     count x int64 per column      (createdAt, xeroUpdatedAt)
+ *   string   (count + 1) x int32 start offsets, then the UTF-8 pool, per column.
+ *            A null value is stored as the bitwise complement of its start.
+ *
+ * Columns are only ever added at the end of their group, and the header records how
+ * many of each a file has, so older files stay readable. Records are decoded one at
+ * a time, the first time someone asks for them.
+ */
+final class QuoteSnapshotFile {
+
+    private static final int MAGIC = 0x45525153;   // "ERQS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8 * 4;
+
+    private record IntColumn(ToIntFunction<QuoteRecord> get, ObjIntConsumer<QuoteRecord> set) {}
+    private record DoubleColumn(ToDoubleFunction<QuoteRecord> get, ObjDoubleConsumer<QuoteRecord> set) {}
+    private record LongColumn(ToLongFunction<QuoteRecord> get, ObjLongConsumer<QuoteRecord> set) {}
+    private record StringColumn(Function<QuoteRecord, String> get, BiConsumer<QuoteRecord, String> set) {}
+
+    // quoteNumber must stay first: replay reads it without decoding whole records
+    private static final List<IntColumn> INT_COLUMNS = List.of(
+            new IntColumn(r -> r.quoteNumber, (r, v) -> r.quoteNumber = v),
+            new IntColumn(r -> r.finalWordCount, (r, v) -> r.finalWordCount = v));
+
+    private static final List<DoubleColumn> DOUBLE_COLUMNS = List.of(
+            new DoubleColumn(r -> r.estimatedHours, (r, v) -> r.estimatedHours = v),
+            new DoubleColumn(r -> r.finalPriceGBP, (r, v) -> r.finalPriceGBP = v));
+
+    private static final List<LongColumn> LONG_COLUMNS = List.of(
+            new LongColumn(r -> r.createdAt, (r, v) -> r.createdAt = v),
+            new LongColumn(r -> r.xeroUpdatedAt, (r, v) -> r.xeroUpdatedAt = v));
+
+    // position of xeroQuoteId in STRING_COLUMNS, for reading it without decoding the record
+    private static final int XERO_QUOTE_ID_COLUMN = 7;
+
+    private static final List<StringColumn> STRING_COLUMNS = List.of(
+            new StringColumn(r -> r.clientName, (r, v) -> r.clientName = v),
+            new StringColumn(r -> r.clientEmail, (r, v) -> r.clientEmail = v),
+            new StringColumn(r -> r.companyName, (r, v) -> r.companyName = v),
+            new StringColumn(r -> r.documentTitle, (r, v) -> r.documentTitle = v),
+            new StringColumn(r -> r.specialNotes, (r, v) -> r.specialNotes = v),
+            new StringColumn(r -> r.attachedFilePath, (r, v) -> r.attachedFilePath = v),
+            new StringColumn(r -> r.jobFolderPath, (r, v) -> r.jobFolderPath = v),
+            new StringColumn(r -> r.xeroQuoteId, (r, v) -> r.xeroQuoteId = v),
+            new StringColumn(r -> r.xeroStatus, (r, v) -> r.xeroStatus = v));
+
+    private QuoteSnapshotFile() {}
+
+    // ---- Writing ----
+
+    static void write(Path file, List<QuoteRecord> records, int lastQuoteNumber) throws IOException {
+        int count = records.size();
+        AtomicFiles.write(file, raw -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(raw, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(lastQuoteNumber);
+            out.writeInt(INT_COLUMNS.size());
+            out.writeInt(DOUBLE_COLUMNS.size());
+            out.writeInt(LONG_COLUMNS.size());
+            out.writeInt(STRING_COLUMNS.size());
+
+            for (IntColumn c : INT_COLUMNS) {
+                for (int i = 0; i < count; i++) out.writeInt(c.get().applyAsInt(records.get(i)));
+            }
+            for (DoubleColumn c : DOUBLE_COLUMNS) {
+                for (int i = 0; i < count; i++) out.writeDouble(c.get().applyAsDouble(records.get(i)));
+            }
+            for (LongColumn c : LONG_COLUMNS) {
+                for (int i = 0; i < count; i++) out.writeLong(c.get().applyAsLong(records.get(i)));
+            }
+            for (StringColumn c : STRING_COLUMNS) {
+                // pass 1: offsets (encode to measure, don't keep); pass 2: the pool itself
+                int pos = 0;
+                for (int i = 0; i < count; i++) {
+                    String v = c.get().apply(records.get(i));
+                    out.writeInt(v == null ? ~pos : pos);
+                    if (v != null) pos = Math.addExact(pos, v.getBytes(StandardCharsets.UTF_8).length);
+                }
+                out.writeInt(pos);
+                for (int i = 0; i < count; i++) {
+                    String v = c.get().apply(records.get(i));
+                    if (v != null) out.write(v.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            out.flush();
+        });
+    }
+
+    // ---- Reading ----
+
+    static LazyList open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a quotes snapshot: " + file);
+            }
+            if (header.getInt(4) > VERSION) {
+                throw new IOException("Quotes snapshot " + file + " is from a newer version");
+            }
+            int count = header.getInt(8);
+            int last = header.getInt(12);
+            int ints = header.getInt(16);
+            int doubles = header.getInt(20);
+            int longs = header.getInt(24);
+            int strings = header.getInt(28);
+
+            // Each column gets its own mapping, which keeps every region well under 2 GB
+            long pos = HEADER_BYTES;
+            MappedByteBuffer[] intCols = new MappedByteBuffer[ints];
+            for (int c = 0; c < ints; c++) {
+                intCols[c] = ch.map(FileChannel.MapMode.READ_ONLY, pos, 4L * count);
+                pos += 4L * count;
+            }
+            MappedByteBuffer[] doubleCols = new MappedByteBuffer[doubles];
+            for (int c = 0; c < doubles; c++) {
+                doubleCols[c] = ch.map(FileChannel.MapMode.READ_ONLY, pos, 8L * count);
+                pos += 8L * count;
+            }
+            MappedByteBuffer[] longCols = new MappedByteBuffer[longs];
+            for (int c = 0; c < longs; c++) {
+                longCols[c] = ch.map(FileChannel.MapMode.READ_ONLY, pos, 8L * count);
+                pos += 8L * count;
+            }
+            MappedByteBuffer[] stringStarts = new MappedByteBuffer[strings];
+            MappedByteBuffer[] stringPools = new MappedByteBuffer[strings];
+            for (int c = 0; c < strings; c++) {
+                long startsBytes = 4L * (count + 1);
+                stringStarts[c] = ch.map(FileChannel.MapMode.READ_ONLY, pos, startsBytes);
+                pos += startsBytes;
+                int poolBytes = stringStarts[c].getInt(4 * count);
+                stringPools[c] = ch.map(FileChannel.MapMode.READ_ONLY, pos, poolBytes);
+                pos += poolBytes;
+            }
+
+            // the mappings stay valid after the channel is closed
+            Columns cols = new Columns(count, last, intCols, doubleCols, longCols, stringStarts, stringPools);
+            return new LazyList(cols, true);
+        }
+    }
+
+    private record Columns(int count, int lastQuoteNumber,
+                           MappedByteBuffer[] ints, MappedByteBuffer[] doubles, MappedByteBuffer[] longs,
+                           MappedByteBuffer[] stringStarts, MappedByteBuffer[] stringPools) {
+
+        QuoteRecord decode(int i) {
+            QuoteRecord r = new QuoteRecord();
+            for (int c = 0; c < Math.min(ints.length, INT_COLUMNS.size()); c++) {
+                INT_COLUMNS.get(c).set().accept(r, ints[c].getInt(4 * i));
+            }
+            for (int c = 0; c < Math.min(doubles.length, DOUBLE_COLUMNS.size()); c++) {
+                DOUBLE_COLUMNS.get(c).set().accept(r, doubles[c].getDouble(8 * i));
+            }
+            for (int c = 0; c < Math.min(longs.length, LONG_COLUMNS.size()); c++) {
+                LONG_COLUMNS.get(c).set().accept(r, longs[c].getLong(8 * i));
+            }
+            for (int c = 0; c < Math.min(stringStarts.length, STRING_COLUMNS.size()); c++) {
+                STRING_COLUMNS.get(c).set().accept(r, string(c, i));
+            }
+            return r;
+        }
+
+        // null if this snapshot predates the column
+        String xeroQuoteId(int i) {
+            return (XERO_QUOTE_ID_COLUMN < stringStarts.length) ? string(XERO_QUOTE_ID_COLUMN, i) : null;
+        }
+
+        private String string(int column, int i) {
+            int start = stringStarts[column].getInt(4 * i);
+            if (start < 0) return null;
+            int end = stringStarts[column].getInt(4 * (i + 1));
+            if (end < 0) end = ~end;
+            byte[] bytes = new byte[end - start];
+            stringPools[column].get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The quotes list when loaded from a snapshot: the mapped records first (decoded
+     * and cached on first access), then anything added since in an ordinary ArrayList.
+     * Like ArrayList it is not thread-safe; QuoteDatabase guards it.
+     */
+    static final class LazyList extends AbstractList<QuoteRecord> implements RandomAccess {
+
+        private final Columns cols;
+        private final QuoteRecord[] decoded;
+        private final ArrayList<QuoteRecord> tail;
+        private final boolean caching;
+
+        private LazyList(Columns cols, boolean caching) {
+            this(cols, new QuoteRecord[cols.count()], new ArrayList<>(), caching);
+        }
+
+        private LazyList(Columns cols, QuoteRecord[] decoded, ArrayList<QuoteRecord> tail, boolean caching) {
+            this.cols = cols;
+            this.decoded = decoded;
+            this.tail = tail;
+            this.caching = caching;
+        }
+
+        int lastQuoteNumber() {
+            return cols.lastQuoteNumber();
+        }
+
+        // Read a record's number straight from the column, without decoding it
+        int quoteNumberAt(int i) {
+            if (i < cols.count()) {
+                QuoteRecord r = decoded[i];
+                return (r != null) ? r.quoteNumber : cols.ints()[0].getInt(4 * i);
+            }
+            return tail.get(i - cols.count()).quoteNumber;
+        }
+
+        // Same for the xeroQuoteId, from the string column
+        String xeroQuoteIdAt(int i) {
+            if (i < cols.count()) {
+                QuoteRecord r = decoded[i];
+                return (r != null) ? r.xeroQuoteId : cols.xeroQuoteId(i);
+            }
+            return tail.get(i - cols.count()).xeroQuoteId;
+        }
+
+        // Point-in-time copy for writing a snapshot on another thread. Shares the
+        // mapping, and decodes without caching so the write doesn't pin every record.
+        LazyList copyForWrite() {
+            return new LazyList(cols, decoded.clone(), new ArrayList<>(tail), false);
+        }
+
+        @Override
+        public QuoteRecord get(int i) {
+            if (i >= cols.count()) {
+                return tail.get(i - cols.count());
+            }
+            QuoteRecord r = decoded[i];
+            if (r == null) {
+                r = cols.decode(i);
+                if (caching) decoded[i] = r;
+            }
+            return r;
+        }
+
+        @Override
+        public QuoteRecord set(int i, QuoteRecord r) {
+            if (i >= cols.count()) {
+                return tail.set(i - cols.count(), r);
+            }
+            QuoteRecord old = get(i);
+            decoded[i] = r;
+            return old;
+        }
+
+        @Override
+        public boolean add(QuoteRecord r) {
+            modCount++;
+            return tail.add(r);
+        }
+
+        @Override
+        public int size() {
+            return cols.count() + tail.size();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.easyread.trello;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Company name -> Trello template card id, from data/templates.json (or the copy
+ * bundled on the classpath).
+ *
+ * The file is read once into an immutable map. A background thread watches the data
+ * folder and swaps in a freshly parsed map when templates.json changes; callers never
+ * see a half-loaded one. If a new version doesn't parse, the previous map is kept.
+ *
+ * Template cards' descriptions are cached here too, so cloning a template doesn't
+ * need a GET to find out what description the clone started with.
+ */
+public class TemplateRegistry {
+
+    private static final Path DEFAULT_FILE = Paths.get("data", "templates.json");
+    private static final String CLASSPATH_COPY = "/data/templates.json";
+
+    // re-fetch a template's description after this long, to pick up edits made in Trello
+    private static final long DESCRIPTION_TTL_MILLIS = 15 * 60 * 1000L;
+
+    private static final class Holder {
+        static final TemplateRegistry SHARED = new TemplateRegistry(DEFAULT_FILE);
+    }
+
+    /** The registry for data/templates.json, shared by every TrelloClient. */
+    public static TemplateRegistry shared() {
+        return Holder.SHARED;
+    }
+
+    /** Fetches a card's description from Trello. */
+    public interface DescriptionLoader {
+        String load(String cardId) throws IOException;
+    }
+
+    private record CachedDescription(String text, long fetchedAt) {}
+
+    private final Path file;
+    private volatile Map<String, String> templates;
+    private final Map<String, CachedDescription> descriptions = new ConcurrentHashMap<>();
+
+    public TemplateRegistry(Path file) {
+        this.file = file;
+        Map<String, String> loaded = load();
+        this.templates = (loaded != null) ? loaded : Map.of();
+        startWatching();
+    }
+
+    /** Template card id for this company, or null if it has none. */
+    public String templateFor(String companyName) {
+        if (companyName == null) return null;
+        String id = templates.get(companyName);
+        return (id == null || id.isEmpty()) ? null : id;
+    }
+
+    /** All templates (immutable). */
+    public Map<String, String> all() {
+        return templates;
+    }
+
+    /** The template card's description, from cache when fresh, otherwise via the loader. */
+    public String descriptionOf(String templateCardId, DescriptionLoader loader) throws IOException {
+        long now = System.currentTimeMillis();
+        CachedDescription cached = descriptions.get(templateCardId);
+        if (cached != null && now - cached.fetchedAt() < DESCRIPTION_TTL_MILLIS) {
+            return cached.text();
+        }
+        String text = loader.load(templateCardId);
+        descriptions.put(templateCardId, new CachedDescription(text, now));
+        return text;
+    }
+
+    // ---- Loading ----
+
+    // null means "couldn't read it": keep whatever we had
+    private Map<String, String> load() {
+        try {
+            String json;
+            if (Files.exists(file)) {
+                json = Files.readString(file, StandardCharsets.UTF_8);
+            } else {
+                try (InputStream in = TemplateRegistry.class.getResourceAsStream(CLASSPATH_COPY)) {
+                    if (in == null) {
+                        System.err.println("No templates.json found on disk or in resources; using no templates.");
+                        return Map.of();
+                    }
+                    json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+
+            Map<String, String> map = new HashMap<>();
+            if (!json.isBlank()) {
+                JSONObject obj = new JSONObject(json);
+                for (String key : obj.keySet()) {
+                    map.put(key, obj.optString(key, ""));
+                }
+            }
+            System.out.println("Loaded " + map.size() + " templates from templates.json");
+            return Map.copyOf(map);
+        } catch (Exception e) {
+            System.err.println("Warning: couldn't read templates.json. " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void reload() {
+        Map<String, String> loaded = load();
+        if (loaded == null) return;
+        templates = loaded;
+        // template cards may have been swapped for other ones
+        descriptions.clear();
+    }
+
+    // ---- Watching ----
+
+    private void startWatching() {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir == null || !Files.isDirectory(dir)) {
+            System.out.println("Not watching templates.json: " + dir + " doesn't exist.");
+            return;
+        }
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            System.err.println("Couldn't watch " + dir + " for template changes: " + e.getMessage());
+            return;
+        }
+
+        Path name = file.getFileName();
+        Thread t = new Thread(() -> watchLoop(watcher, name), "templates-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void watchLoop(WatchService watcher, Path name) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    // editors often write in several steps; let them finish, then load once
+                    Thread.sleep(200);
+                    key.pollEvents();
+                    reload();
+                }
+                if (!key.reset()) {
+                    System.err.println("Stopped watching templates.json: folder is gone.");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+}
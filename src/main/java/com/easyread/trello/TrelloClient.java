@@ -1,22 +1,89 @@
 package com.easyread.trello;
 
+import com.easyread.http.RateLimitScheduler;
+import com.easyread.http.StreamingFileBody;
+import com.easyread.outbox.IdempotencyLedger;
+
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
-import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class TrelloClient {
 
+    // Trello's REST root; TRELLO_API_BASE can point it at a local stand-in server
+    private static final String DEFAULT_API_BASE =
+            System.getenv().getOrDefault("TRELLO_API_BASE", "https://api.trello.com/1");
+
+    // One pooled client for every TrelloClient: connections (and their TLS sessions)
+    // are kept alive and reused between calls, over HTTP/2 where the server offers it.
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(envMillis("TRELLO_CONNECT_TIMEOUT_MS", 5_000)))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    // an upload gets the usual timeout plus this long per MB, i.e. it fails if it
+    // averages under ~32 KB/s
+    private static final long UPLOAD_MILLIS_PER_MB = 32_000;
+
+    // Trello calls spend nearly all their time waiting on the network: one virtual thread each
+    private static final ExecutorService ASYNC = Executors.newVirtualThreadPerTaskExecutor();
+
     private final String apiKey;
     private final String token;
     private final String listId;
+    private final String apiBase;
+    private final Duration requestTimeout;   // per call, covers waiting for the response
+    private final RateLimitScheduler limiter;
+    private final TemplateRegistry templates = TemplateRegistry.shared();
+    private volatile CreationMode creationMode = CreationMode.fromEnv();
+
+    /** How createFullCardForQuote talks to Trello. */
+    public enum CreationMode {
+        /** Create, then PUT the description and each custom field separately. */
+        CLASSIC,
+        /**
+         * Build the description locally and send it with the create call, then set both
+         * custom fields in one batch PUT: two calls per card, plus the attachment.
+         */
+        MINIMAL_ROUND_TRIPS;
+
+        // TRELLO_CREATION_MODE=MINIMAL_ROUND_TRIPS opts in
+        static CreationMode fromEnv() {
+            String v = System.getenv().getOrDefault("TRELLO_CREATION_MODE", "CLASSIC");
+            try {
+                return valueOf(v.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown TRELLO_CREATION_MODE '" + v + "', using CLASSIC.");
+                return CLASSIC;
+            }
+        }
+    }
+
+    // remembers which quotes already have cards; optional
+    private volatile IdempotencyLedger ledger;
+    private static final String LEDGER_NAME = "trello";
+
+    // HTTP calls made by this client, and by the card currently being built on this thread
+    private final AtomicLong httpCalls = new AtomicLong();
+    private static final ThreadLocal<AtomicInteger> CARD_CALLS = new ThreadLocal<>();
 
     // IDs for custom fields
     private final String statusFieldId;
@@ -29,17 +96,82 @@ public class TrelloClient {
                         String statusFieldId,
                         String statusOptionWithUsId,
                         String estHoursFieldId) {
+        this(apiKey, token, listId, statusFieldId, statusOptionWithUsId, estHoursFieldId,
+                DEFAULT_API_BASE,
+                Duration.ofMillis(envMillis("TRELLO_TIMEOUT_MS", 30_000)));
+    }
+
+    public TrelloClient(String apiKey,
+                        String token,
+                        String listId,
+                        String statusFieldId,
+                        String statusOptionWithUsId,
+                        String estHoursFieldId,
+                        String apiBase,
+                        Duration requestTimeout) {
+        this(apiKey, token, listId, statusFieldId, statusOptionWithUsId, estHoursFieldId,
+                apiBase, requestTimeout, RateLimitScheduler.trello());
+    }
+
+    // Tests pass their own limiter, so they don't spend the process-wide Trello budget
+    TrelloClient(String apiKey,
+                 String token,
+                 String listId,
+                 String statusFieldId,
+                 String statusOptionWithUsId,
+                 String estHoursFieldId,
+                 String apiBase,
+                 Duration requestTimeout,
+                 RateLimitScheduler limiter) {
         this.apiKey = apiKey;
         this.token = token;
         this.listId = listId;
         this.statusFieldId = statusFieldId;
         this.statusOptionWithUsId = statusOptionWithUsId;
         this.estHoursFieldId = estHoursFieldId;
+        this.apiBase = apiBase;
+        this.requestTimeout = requestTimeout;
+        this.limiter = limiter;
+    }
+
+    public CreationMode getCreationMode() {
+        return creationMode;
+    }
+
+    public void setCreationMode(CreationMode mode) {
+        this.creationMode = mode;
+    }
+
+    /** Record cards in this ledger, and reuse the ones it already has. */
+    public void setLedger(IdempotencyLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /** Total HTTP calls this client has made to Trello. */
+    public long httpCallCount() {
+        return httpCalls.get();
+    }
+
+    /**
+     * Open a connection to Trello in the background (DNS, TCP, TLS), so the first
+     * real call after startup doesn't pay for it. Failures are only logged.
+     */
+    public void warmUp() {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(apiBase + "/"))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(requestTimeout)
+                .build();
+        HTTP.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((r, ex) -> {
+                    if (ex != null) {
+                        System.err.println("Trello warm-up failed: " + ex.getMessage());
+                    }
+                });
     }
 
     // 1. Create the Trello card and return its card ID
     public String createCard(String name, String description) throws IOException {
-        String urlStr = "https://api.trello.com/1/cards";
+        String urlStr = apiBase + "/cards";
 
         String data = "key=" + urlencode(apiKey) +
                 "&token=" + urlencode(token) +
@@ -47,14 +179,12 @@ public class TrelloClient {
                 "&name=" + urlencode(name) +
                 "&desc=" + urlencode(description);
 
-        HttpURLConnection conn = post(urlStr, data);
-
-        int code = conn.getResponseCode();
-        if (code != 200) {
-            throw new IOException("Failed to create card. HTTP " + code + " " + readStream(conn.getErrorStream()));
-        }
+        HttpRequest req = request(urlStr)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(data))
+                .build();
+        String response = sendOk(req, "Failed to create card.");
 
-        String response = readStream(conn.getInputStream());
         // The response is JSON, and includes "id":"xxxxx"
         String cardId = extractJsonField(response, "id");
         return cardId;
@@ -63,7 +193,7 @@ public class TrelloClient {
     // 2. Set dropdown custom field "Status" = "with us"
     public void setStatusWithUs(String cardId) throws IOException {
         // PUT /1/card/{idCard}/customField/{idCustomField}/item
-        String urlStr = "https://api.trello.com/1/cards/" + cardId +
+        String urlStr = apiBase + "/cards/" + cardId +
                 "/customField/" + statusFieldId + "/item";
 
         // dropdown fields use "idValue"
@@ -74,7 +204,7 @@ public class TrelloClient {
 
     // 3. Set numeric/text custom field "Estimated hours"
     public void setEstimatedHours(String cardId, double hours) throws IOException {
-        String urlStr = "https://api.trello.com/1/cards/" + cardId +
+        String urlStr = apiBase + "/cards/" + cardId +
                 "/customField/" + estHoursFieldId + "/item";
 
         String hoursAsString = Double.toString(hours);
@@ -91,30 +221,60 @@ public class TrelloClient {
     }
 
     private void putJson(String urlStr, String json) throws IOException {
-        URL url = new URL(urlStr + "?key=" + urlencode(apiKey) + "&token=" + urlencode(token));
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("PUT");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Accept", "application/json");
-        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(json.getBytes(StandardCharsets.UTF_8));
-        }
+        HttpRequest req = request(urlStr + "?key=" + urlencode(apiKey) + "&token=" + urlencode(token))
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .PUT(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        sendOk(req, "PUT failed.");
+    }
+
+    private HttpRequest.Builder request(String urlStr) {
+        return HttpRequest.newBuilder(URI.create(urlStr))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json");
+    }
 
-        int code = conn.getResponseCode();
+    // Send on the shared client; non-2xx becomes an IOException starting with failureMessage
+    private String sendOk(HttpRequest req, String failureMessage) throws IOException {
+        httpCalls.incrementAndGet();
+        AtomicInteger cardCalls = CARD_CALLS.get();
+        if (cardCalls != null) cardCalls.incrementAndGet();
+
+        // queued behind Trello's rate limit, and retried on 429 (and on 503 unless it
+        // creates something: Trello has no idempotency keys, so a repeat is a duplicate)
+        boolean safeToRepeat = !"POST".equals(req.method());
+        HttpResponse<String> resp = limiter.execute(() -> {
+            try {
+                return HTTP.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for Trello: " + req.uri().getPath());
+            }
+        }, safeToRepeat, HttpResponse::statusCode, (r, name) -> r.headers().firstValue(name).orElse(null));
+        int code = resp.statusCode();
         if (code < 200 || code >= 300) {
-            throw new IOException("PUT failed. HTTP " + code + " " + readStream(conn.getErrorStream()));
+            throw new HttpStatusException(code, failureMessage + " HTTP " + code + " " + resp.body());
+        }
+        return resp.body();
+    }
+
+    // A call that reached Trello and got a non-2xx answer
+    private static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        HttpStatusException(int code, String message) {
+            super(message);
+            this.code = code;
         }
     }
 
-    private static String readStream(InputStream is) throws IOException {
-        if (is == null) return "";
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line);
-            return sb.toString();
+    private static long envMillis(String name, long fallback) {
+        try {
+            return Long.parseLong(System.getenv().getOrDefault(name, Long.toString(fallback)));
+        } catch (NumberFormatException e) {
+            return fallback;
         }
     }
 
@@ -131,59 +291,6 @@ public class TrelloClient {
         return json.substring(start, end);
     }
     
-    private Map<String, String> loadTemplates() {
-        Map<String, String> map = new HashMap<>();
-        String json = null;
-
-        // 1) Try external file first: data/templates.json
-        Path external = Paths.get("data", "templates.json");
-        try {
-            if (Files.exists(external)) {
-                System.out.println("Loading templates from " + external.toAbsolutePath());
-                json = Files.readString(external, StandardCharsets.UTF_8);
-            } else {
-                // 2) Fallback: try to load default from classpath /data/templates.json
-                System.out.println("data/templates.json not found on disk, trying classpath resource /data/templates.json");
-                try (InputStream in = getClass().getResourceAsStream("/data/templates.json")) {
-                    if (in != null) {
-                        json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
-                    } else {
-                        System.err.println("No templates.json found on disk or in resources; using no templates.");
-                        return map;
-                    }
-                }
-            }
-
-            // Now parse the JSON string
-            json = json.trim();
-            if (json.startsWith("{")) json = json.substring(1);
-            if (json.endsWith("}")) json = json.substring(0, json.length() - 1);
-
-            if (!json.isBlank()) {
-                String[] entries = json.split(",");
-                for (String entry : entries) {
-                    String[] parts = entry.split(":");
-                    if (parts.length == 2) {
-                        String rawKey = parts[0].trim();
-                        String rawVal = parts[1].trim();
-
-                        String key = rawKey.replaceAll("^\"|\"$", "");
-                        String val = rawVal.replaceAll("^\"|\"$", "");
-
-                        map.put(key, val);
-                    }
-                }
-            }
-
-            System.out.println("Loaded " + map.size() + " templates from templates.json");
-        } catch (Exception e) {
-            System.err.println("Warning: couldn't read templates.json, using no templates. " + e.getMessage());
-        }
-
-        return map;
-    }
-
-    
     public String createFullCardForQuote(
             String companyName,
             String jobName,
@@ -192,6 +299,43 @@ public class TrelloClient {
             String clientEmail,
             double estHours
     ) throws IOException {
+        return await(createFullCardForQuoteAsync(
+                companyName, jobName, quoteNumber, briefText, clientEmail, estHours, null));
+    }
+
+    /**
+     * Create the full card for a quote without blocking the caller.
+     *
+     * Only creating the card itself is sequential. After that the remaining calls (see
+     * CreationMode) and the attachment (skipped if attachmentPath is blank) are sent at
+     * the same time, so the whole thing takes about as long as the slowest of them.
+     *
+     * With a ledger set, a quote that already has a card reuses it: a finished card
+     * completes straight away, and a half-finished one only gets the missing steps.
+     *
+     * Completes with the new card id. If any follow-up call fails, completes with one
+     * IOException naming the card, with each failure attached as a suppressed exception.
+     */
+    public CompletableFuture<String> createFullCardForQuoteAsync(
+            String companyName,
+            String jobName,
+            int quoteNumber,
+            String briefText,
+            String clientEmail,
+            double estHours,
+            String attachmentPath
+    ) {
+        CreationMode mode = creationMode;
+        IdempotencyLedger ledger = this.ledger;
+        AtomicInteger calls = new AtomicInteger();
+
+        if (ledger != null) {
+            String finished = ledger.doneId(quoteNumber, LEDGER_NAME, "complete");
+            if (finished != null) {
+                System.out.println("Quote " + quoteNumber + " already has Trello card " + finished);
+                return CompletableFuture.completedFuture(finished);
+            }
+        }
 
         // 1. Build final Trello card title
         // e.g. "5462 | Safeguarding Policy | Example Council"
@@ -201,111 +345,225 @@ public class TrelloClient {
                 + " | "
                 + companyName;
 
-        // 2. Load template mapping
-        Map<String, String> templates = loadTemplates();
-        String templateCardId = templates.get(companyName);
+        // 2. Look up the company's template card (loaded once, reloaded when the file changes)
+        String templateCardId = templates.templateFor(companyName);
+
+        // The template's description (a fresh card starts with none), usually from cache.
+        // It doesn't depend on the new card, so it can be fetched alongside creating it.
+        CompletableFuture<String> templateDesc = (templateCardId != null)
+                ? async(calls, () -> templates.descriptionOf(templateCardId, this::getCardDescription))
+                : CompletableFuture.completedFuture("");
+
+        // A card made by an earlier attempt, if there was one
+        CompletableFuture<String> existing = (ledger == null)
+                ? CompletableFuture.completedFuture(null)
+                : async(calls, () -> existingCard(ledger, quoteNumber, cardTitle));
+
+        CompletableFuture<String> card;
+        List<CompletableFuture<?>> steps = new ArrayList<>();
+
+        if (mode == CreationMode.MINIMAL_ROUND_TRIPS) {
+            // 3. Create the card with its final description already in place
+            //    (a reused card gets the description PUT instead)
+            card = existing.thenCombine(templateDesc, (found, desc) -> found != null
+                    ? CompletableFuture.completedFuture(found)
+                    : async(calls, () -> createQuoteCard(ledger, quoteNumber, cardTitle, templateCardId,
+                            upsertBriefSection(desc, briefText, clientEmail))))
+                    .thenCompose(f -> f);
+            steps.add(existing.thenCombine(card, (found, cardId) -> found == null
+                    ? CompletableFuture.completedFuture(null)
+                    : templateDesc.thenCompose(desc -> async(calls, () -> {
+                        updateCardDescription(cardId, upsertBriefSection(desc, briefText, clientEmail));
+                        return null;
+                    }))).thenCompose(f -> f));
+
+            // 4. Both custom fields in one request
+            steps.add(card.thenCompose(cardId -> async(calls, () -> {
+                setCustomFields(cardId, estHours);
+                return null;
+            })));
+        } else {
+            // 3. Create the card (either from template or fresh)
+            card = existing.thenCompose(found -> found != null
+                    ? CompletableFuture.completedFuture(found)
+                    : async(calls, () -> createQuoteCard(ledger, quoteNumber, cardTitle, templateCardId, null)));
+
+            // 4. Preserve *template* description (preferences etc.) and add our brief + email.
+            //    Trello's desc SETS the description, so we write back template desc + brief.
+            steps.add(card.thenCombine(templateDesc, (cardId, desc) -> async(calls, () -> {
+                updateCardDescription(cardId, upsertBriefSection(desc, briefText, clientEmail));
+                return null;
+            })).thenCompose(f -> f));
+
+            // 5. Set custom field "Status" = with us
+            steps.add(card.thenCompose(cardId -> async(calls, () -> { setStatusWithUs(cardId); return null; })));
+
+            // 6. Set custom field "Estimated hours"
+            steps.add(card.thenCompose(cardId -> async(calls, () -> { setEstimatedHours(cardId, estHours); return null; })));
+        }
 
-        // 3. Create the card (either from template or fresh)
-        String cardId;
-        if (templateCardId != null && !templateCardId.isEmpty()) {
-            // clone from template
-            String urlStr = "https://api.trello.com/1/cards" +
-                    "?key=" + urlencode(apiKey) +
-                    "&token=" + urlencode(token) +
-                    "&idList=" + urlencode(listId) +
-                    "&name=" + urlencode(cardTitle) +
-                    "&idCardSource=" + urlencode(templateCardId) +
-                    "&keepFromSource=all";
+        // 7. Upload the client file as an attachment (once: another upload would add a second copy)
+        if (attachmentPath != null && !attachmentPath.isBlank()
+                && (ledger == null || ledger.doneId(quoteNumber, LEDGER_NAME, "attachment") == null)) {
+            steps.add(card.thenCompose(cardId -> async(calls, () -> {
+                uploadAttachmentToCard(cardId, attachmentPath);
+                if (ledger != null) ledger.done(quoteNumber, LEDGER_NAME, "attachment", cardId);
+                return null;
+            })));
+        }
 
-            System.out.println("DEBUG Trello POST URL:\n" + urlStr);
+        return card.thenCompose(cardId -> CompletableFuture.allOf(steps.toArray(new CompletableFuture<?>[0]))
+                .handle((ok, ignored) -> {
+                    System.out.println("Trello card " + cardId + " for quote " + quoteNumber + ": "
+                            + calls.get() + " HTTP calls (" + mode + ")");
 
-            HttpURLConnection conn = post(urlStr, "");
-            int code = conn.getResponseCode();
-            if (code != 200) {
-                throw new IOException("Failed to create card from template. HTTP " + code + " " + readStream(conn.getErrorStream()));
-            }
-            String response = readStream(conn.getInputStream());
-            cardId = extractJsonField(response, "id");
+                    List<Throwable> failures = new ArrayList<>();
+                    for (CompletableFuture<?> step : steps) {
+                        step.exceptionally(ex -> { failures.add(unwrap(ex)); return null; });
+                    }
+                    if (failures.isEmpty()) {
+                        if (ledger != null) ledger.done(quoteNumber, LEDGER_NAME, "complete", cardId);
+                        return cardId;
+                    }
+                    IOException combined = new IOException("Card " + cardId + " was created, but "
+                            + failures.size() + " of " + steps.size() + " follow-up calls failed: "
+                            + failures.get(0).getMessage());
+                    failures.forEach(combined::addSuppressed);
+                    throw new CompletionException(combined);
+                }));
+    }
 
-        } else {
-            // normal fresh card
-            String urlStr = "https://api.trello.com/1/cards" +
-                    "?key=" + urlencode(apiKey) +
-                    "&token=" + urlencode(token) +
-                    "&idList=" + urlencode(listId) +
-                    "&name=" + urlencode(cardTitle);
-
-            HttpURLConnection conn = post(urlStr, "");
-            int code = conn.getResponseCode();
-            if (code != 200) {
-                throw new IOException("Failed to create card. HTTP " + code + " " + readStream(conn.getErrorStream()));
+    // The card an earlier attempt made for this quote. If that attempt died mid-create
+    // (STARTED, never DONE), the card may exist anyway: look for it on the list by title.
+    private String existingCard(IdempotencyLedger ledger, int quoteNumber, String cardTitle) throws IOException {
+        IdempotencyLedger.Entry e = ledger.get(quoteNumber, LEDGER_NAME, "card");
+        if (e == null) return null;
+        if (e.isDone()) return e.remoteId();
+
+        String urlStr = apiBase + "/lists/" + listId + "/cards" +
+                "?fields=name" +
+                "&key=" + urlencode(apiKey) +
+                "&token=" + urlencode(token);
+        JSONArray cards = new JSONArray(sendOk(request(urlStr).GET().build(), "Listing cards failed."));
+        for (int i = 0; i < cards.length(); i++) {
+            JSONObject c = cards.getJSONObject(i);
+            if (cardTitle.equals(c.optString("name"))) {
+                String id = c.getString("id");
+                ledger.done(quoteNumber, LEDGER_NAME, "card", id);
+                return id;
             }
-            String response = readStream(conn.getInputStream());
-            cardId = extractJsonField(response, "id");
         }
-        
-     // 4. Preserve *template* description (preferences etc.) and append our brief + email.
-//      IMPORTANT: Trello's /desc endpoint SETS the description, it does not append.
-//      So we first fetch the current desc, then write back: existing + appended block.
-  String existingDesc = getCardDescription(cardId);
-
-  StringBuilder block = new StringBuilder();
-  block.append("\n\n---\n\n");
-  block.append("Brief\n\n");
-  if (briefText != null && !briefText.isBlank()) {
-      block.append(briefText.trim());
-  } else {
-      block.append("(no brief provided)");
-  }
-
-  // Manager request: add client email into the brief block (append again)
-  if (clientEmail != null && !clientEmail.isBlank()) {
-      block.append("\n\nClient email: ").append(clientEmail.trim());
-  }
-
-  String newDesc = upsertBriefSection(existingDesc, briefText, clientEmail);
-  updateCardDescription(cardId, newDesc);
-  System.out.println("Updated card description (kept template prefs + appended brief/email).");
-
-        // 5. Set custom field "Status" = with us
-        setStatusWithUs(cardId);
-
-        // 6. Set custom field "Estimated hours"
-        setEstimatedHours(cardId, estHours);
+        return null;
+    }
 
+    private String createQuoteCard(IdempotencyLedger ledger, int quoteNumber, String cardTitle,
+                                   String templateCardId, String desc) throws IOException {
+        if (ledger != null) ledger.started(quoteNumber, LEDGER_NAME, "card");
+        String cardId = createQuoteCard(cardTitle, templateCardId, desc);
+        if (ledger != null) ledger.done(quoteNumber, LEDGER_NAME, "card", cardId);
         return cardId;
     }
-    
-    private static HttpURLConnection putNoBody(String urlStr) throws IOException {
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("PUT");
-        conn.setDoOutput(false);
-        conn.setRequestProperty("Accept", "application/json");
-        return conn;
+
+    // desc == null leaves the description as created (the template's, or empty)
+    private String createQuoteCard(String cardTitle, String templateCardId, String desc) throws IOException {
+        String urlStr = apiBase + "/cards";
+
+        // form body rather than query string: a description can be long
+        String data = "key=" + urlencode(apiKey) +
+                "&token=" + urlencode(token) +
+                "&idList=" + urlencode(listId) +
+                "&name=" + urlencode(cardTitle);
+        if (templateCardId != null) {
+            // clone from template
+            data += "&idCardSource=" + urlencode(templateCardId) +
+                    "&keepFromSource=all";
+        }
+        if (desc != null) {
+            data += "&desc=" + urlencode(desc);
+        }
+
+        HttpRequest req = request(urlStr)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(data))
+                .build();
+        String response = sendOk(req, templateCardId != null
+                ? "Failed to create card from template."
+                : "Failed to create card.");
+        return extractJsonField(response, "id");
     }
-    
-    private static HttpURLConnection post(String urlStr, String body) throws IOException {
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
 
-        // 👉 This is the critical line:
-        conn.setRequestMethod("POST");      // not GET!
+    // Status = "with us" and Estimated hours in one request
+    private void setCustomFields(String cardId, double hours) throws IOException {
+        // PUT /1/cards/{idCard}/customFields
+        String urlStr = apiBase + "/cards/" + cardId + "/customFields";
+
+        JSONArray items = new JSONArray()
+                .put(new JSONObject()
+                        .put("idCustomField", statusFieldId)
+                        .put("idValue", statusOptionWithUsId))
+                .put(new JSONObject()
+                        .put("idCustomField", estHoursFieldId)
+                        .put("value", new JSONObject().put("number", Double.toString(hours))));
+
+        putJson(urlStr, new JSONObject().put("customFieldItems", items).toString());
+    }
 
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Accept", "application/json");
-        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+    private interface TrelloCall<T> {
+        T call() throws IOException;
+    }
 
-        if (body != null && !body.isEmpty()) {
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = body.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+    // Run on a virtual thread, counting its HTTP calls towards one card
+    private static <T> CompletableFuture<T> async(AtomicInteger calls, TrelloCall<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            CARD_CALLS.set(calls);
+            try {
+                return call.call();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                CARD_CALLS.remove();
             }
+        }, ASYNC);
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+
+    // Block on a future, rethrowing its failure as the IOException it started as
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for Trello");
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException(cause);
         }
-        return conn;
     }
     
     public void uploadAttachmentToCard(String cardId, String filePath) throws IOException {
+        uploadAttachmentToCard(cardId, filePath, null, null);
+    }
+
+    /**
+     * Upload a file to a card, streamed from disk: memory use doesn't depend on the file
+     * size. The whole upload is bounded by a timeout that grows with the file, so a
+     * stalled connection fails instead of hanging. Only a 429 is retried here (by the rate
+     * limiter); anything else fails, and the outbox decides whether to try again.
+     *
+     * @param progress     told how far the upload has got, or null to log every 10%
+     * @param cancellation lets the caller stop the upload, or null
+     */
+    public void uploadAttachmentToCard(String cardId, String filePath,
+                                       StreamingFileBody.Progress progress,
+                                       StreamingFileBody.Cancellation cancellation) throws IOException {
         if (filePath == null || filePath.isBlank()) {
             System.out.println("No file to attach (filePath empty). Skipping attachment.");
             return;
@@ -317,93 +575,78 @@ public class TrelloClient {
             return;
         }
 
-        String urlStr = "https://api.trello.com/1/cards/" + cardId + "/attachments";
-
-        // We'll build a multipart/form-data POST manually
-        String boundary = "----EasyReadBoundary" + System.currentTimeMillis();
-
-        URL url = new URL(urlStr
+        String urlStr = apiBase + "/cards/" + cardId + "/attachments"
                 + "?key=" + urlencode(apiKey)
-                + "&token=" + urlencode(token));
-
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Accept", "application/json");
-        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-
-        try (OutputStream os = conn.getOutputStream();
-             BufferedOutputStream bos = new BufferedOutputStream(os);
-             FileInputStream fis = new FileInputStream(f)) {
-
-            // Part 1: the "file" field
-            String fileHeader =
-                    "--" + boundary + "\r\n" +
-                    "Content-Disposition: form-data; name=\"file\"; filename=\"" + f.getName() + "\"\r\n" +
-                    "Content-Type: application/octet-stream\r\n\r\n";
-            bos.write(fileHeader.getBytes(StandardCharsets.UTF_8));
-
-            // File bytes
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = fis.read(buffer)) != -1) {
-                bos.write(buffer, 0, read);
-            }
-            bos.write("\r\n".getBytes(StandardCharsets.UTF_8));
-
-            // Part 2: optional "name" field (nice human-readable label)
-            String namePart =
-                    "--" + boundary + "\r\n" +
-                    "Content-Disposition: form-data; name=\"name\"\r\n\r\n" +
-                    f.getName() + "\r\n";
-            bos.write(namePart.getBytes(StandardCharsets.UTF_8));
+                + "&token=" + urlencode(token);
 
-            // Finish multipart
-            String endMarker = "--" + boundary + "--\r\n";
-            bos.write(endMarker.getBytes(StandardCharsets.UTF_8));
+        // multipart/form-data with the file part streamed from disk in between
+        String boundary = "----EasyReadBoundary" + System.currentTimeMillis();
 
-            bos.flush();
+        // Part 1: the "file" field (file bytes go in between)
+        String fileHeader =
+                "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"" + f.getName() + "\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n";
+
+        // Part 2: optional "name" field (nice human-readable label), then finish multipart
+        String trailer =
+                "\r\n" +
+                "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"name\"\r\n\r\n" +
+                f.getName() + "\r\n" +
+                "--" + boundary + "--\r\n";
+
+        if (progress == null) {
+            progress = logEveryTenPercent(f.getName());
         }
+        StreamingFileBody body = new StreamingFileBody(
+                fileHeader.getBytes(StandardCharsets.UTF_8),
+                f.toPath(),
+                trailer.getBytes(StandardCharsets.UTF_8),
+                progress,
+                cancellation);
+
+        // big files take a while: allow for a slow link, but not for one that stalled
+        Duration timeout = requestTimeout.plusMillis(f.length() * UPLOAD_MILLIS_PER_MB / (1024 * 1024));
+        HttpRequest req = HttpRequest.newBuilder(URI.create(urlStr))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(body)
+                .build();
+
+        sendOk(req, "Attachment upload failed.");
+        System.out.println("Attachment uploaded successfully for card " + cardId);
+    }
 
-        int code = conn.getResponseCode();
-        if (code < 200 || code >= 300) {
-            throw new IOException("Attachment upload failed. HTTP " + code + " " + readStream(conn.getErrorStream()));
-        } else {
-            System.out.println("Attachment uploaded successfully for card " + cardId);
-        }
+    private static StreamingFileBody.Progress logEveryTenPercent(String name) {
+        AtomicInteger lastTenth = new AtomicInteger();
+        return (sent, total) -> {
+            int tenth = (int) (sent * 10 / Math.max(1, total));
+            if (tenth == 0) lastTenth.set(0);   // a retry starts over
+            if (tenth > lastTenth.getAndAccumulate(tenth, Math::max)) {
+                System.out.println("Uploading " + name + ": " + tenth * 10 + "%");
+            }
+        };
     }
     
     
     private String getCardDescription(String cardId) throws IOException {
-        String urlStr = "https://api.trello.com/1/cards/" + cardId +
+        String urlStr = apiBase + "/cards/" + cardId +
                 "?fields=desc" +
                 "&key=" + urlencode(apiKey) +
                 "&token=" + urlencode(token);
 
-        HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
-        conn.setRequestMethod("GET");
-        conn.setRequestProperty("Accept", "application/json");
-
-        int code = conn.getResponseCode();
-        if (code < 200 || code >= 300) {
-            throw new IOException("GET desc failed. HTTP " + code + " " + readStream(conn.getErrorStream()));
-        }
-
-        String response = readStream(conn.getInputStream());
+        String response = sendOk(request(urlStr).GET().build(), "GET desc failed.");
         return new JSONObject(response).optString("desc", "");
     }
 
     private void updateCardDescription(String cardId, String newDesc) throws IOException {
-        String urlStr = "https://api.trello.com/1/cards/" + cardId +
-                "?key=" + urlencode(apiKey) +
-                "&token=" + urlencode(token) +
-                "&desc=" + urlencode(newDesc == null ? "" : newDesc);
+        String urlStr = apiBase + "/cards/" + cardId;
 
-        HttpURLConnection conn = putNoBody(urlStr);
-        int code = conn.getResponseCode();
-        if (code < 200 || code >= 300) {
-            throw new IOException("PUT desc failed. HTTP " + code + " " + readStream(conn.getErrorStream()));
-        }
+        // in the body rather than the query string: long briefs can exceed URL limits
+        String json = new JSONObject().put("desc", newDesc == null ? "" : newDesc).toString();
+        putJson(urlStr, json);
     }
     
     private String injectIntoBriefSection(String existingDesc, String briefText, String clientEmail) {
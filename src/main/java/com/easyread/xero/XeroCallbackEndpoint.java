@@ -0,0 +1,149 @@
+package com.easyread.xero;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * The one place Xero redirects back to after a login, shared by every login in the
+ * process (every user's session, every XeroClient), and started once.
+ *
+ * Each login registers the random state it sent to Xero; the redirect carries that
+ * state back, which is how it finds its way to the right login. A state is used once:
+ * a second redirect with it (a reloaded tab) is turned away, as is one nobody is
+ * waiting for. Redirects are handled on virtual threads, so slow token exchanges
+ * don't hold up anyone else's.
+ *
+ * It listens on XERO_CALLBACK_BIND:XERO_CALLBACK_PORT, which default to what the
+ * redirect URI says (loopback for a loopback URI, all interfaces otherwise). When the
+ * app is behind a proxy (web mode), route the redirect URI's path to that port; a
+ * non-loopback redirect URI without a port needs XERO_CALLBACK_PORT set.
+ */
+public final class XeroCallbackEndpoint {
+
+    /** Finishes one login from the redirect's query; returns the text to show the user. */
+    public interface Handler {
+        String complete(Map<String, String> query) throws Exception;
+    }
+
+    private static XeroCallbackEndpoint shared;   // guarded by the class
+
+    private final URI redirectUri;
+    private final HttpServer server;
+    private final Map<String, Handler> pending = new ConcurrentHashMap<>();
+
+    /** The endpoint for this redirect URI, started on first use. */
+    public static synchronized XeroCallbackEndpoint shared(String redirectUri) throws IOException {
+        if (shared == null) {
+            shared = new XeroCallbackEndpoint(URI.create(redirectUri));
+        } else if (!shared.redirectUri.equals(URI.create(redirectUri))) {
+            throw new IllegalStateException("Xero callback already listening for " + shared.redirectUri);
+        }
+        return shared;
+    }
+
+    private XeroCallbackEndpoint(URI redirectUri) throws IOException {
+        this.redirectUri = redirectUri;
+        InetSocketAddress bind = bindAddress(redirectUri);
+        String path = (redirectUri.getPath() == null || redirectUri.getPath().isEmpty()) ? "/" : redirectUri.getPath();
+
+        this.server = HttpServer.create(bind, 0);
+        server.createContext(path, this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        System.out.println("[Xero] Redirect listener started on " + bind + " for " + redirectUri);
+    }
+
+    /** Route the redirect carrying this state to the handler (once). */
+    public void register(String state, Handler handler) {
+        pending.put(state, handler);
+    }
+
+    /** Stop waiting for this state, e.g. because the login timed out. */
+    public void unregister(String state) {
+        pending.remove(state);
+    }
+
+    /** Logins waiting for their redirect. */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /** The port actually listened on. */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String state = query.get("state");
+        Handler handler = (state == null) ? null : pending.remove(state);
+
+        int status = 200;
+        String page;
+        if (handler == null) {
+            // stale tab, or a redirect that isn't ours
+            status = 400;
+            page = "This login link has expired. Start again from the app.";
+        } else {
+            try {
+                page = handler.complete(query);
+            } catch (Exception e) {
+                page = "Login failed: " + e.getMessage();
+            }
+        }
+
+        byte[] body = ("<html><body style='font:14px system-ui'>" + escape(page) + "</body></html>")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (var os = exchange.getResponseBody()) { os.write(body); }
+    }
+
+    private static InetSocketAddress bindAddress(URI redirect) throws IOException {
+        boolean loopback = "127.0.0.1".equals(redirect.getHost()) || "localhost".equals(redirect.getHost());
+        String port = System.getenv("XERO_CALLBACK_PORT");
+        int p;
+        if (port != null && !port.isBlank()) {
+            p = Integer.parseInt(port.trim());
+        } else if (redirect.getPort() != -1) {
+            p = redirect.getPort();
+        } else if (loopback) {
+            p = "https".equals(redirect.getScheme()) ? 443 : 80;
+        } else {
+            // the proxy in front owns 443/80; guessing would just fail to bind (or collide)
+            throw new IOException("Set XERO_CALLBACK_PORT to the port the proxy forwards "
+                    + redirect.getPath() + " to: " + redirect + " doesn't say which port to listen on");
+        }
+
+        String host = System.getenv("XERO_CALLBACK_BIND");
+        if (host == null || host.isBlank()) {
+            host = loopback ? "127.0.0.1" : "0.0.0.0";
+        }
+        return new InetSocketAddress(host.trim(), p);
+    }
+
+    private static Map<String, String> parseQuery(String q) {
+        Map<String, String> m = new HashMap<>();
+        if (q == null) return m;
+        for (String p : q.split("&")) {
+            String[] kv = p.split("=", 2);
+            m.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+                    kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+        }
+        return m;
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -1,18 +1,23 @@
 package com.easyread.xero;
 
+import com.easyread.http.RateLimitScheduler;
+import com.easyread.storage.AtomicFiles;
 import okhttp3.*;
 import java.awt.Desktop;
+import java.awt.GraphicsEnvironment;
 import java.io.*;
-import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
-import java.time.Instant;
+import java.time.Duration;
 import java.util.*;
-import com.sun.net.httpserver.HttpServer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.nio.file.Paths;
@@ -22,14 +27,15 @@ public class XeroClient {
 
 	// After
 	// use identity host for PKCE desktop
-	private static final String AUTH_BASE = "https://login.xero.com/identity";
-	private static final String TOKEN_URL = "https://identity.xero.com/connect/token";
-
-	// Try a fresh port and localhost; add BOTH redirects in the Xero app
-	private static final int LOCAL_PORT = 30123;
-	// private static final String REDIRECT  = "http://localhost:" + LOCAL_PORT + "/callback";
-	
-	private static String redirectUri() {
+	// XERO_IDENTITY_BASE points login and token exchange at a stand-in identity server instead
+	private static final String IDENTITY_BASE = System.getenv("XERO_IDENTITY_BASE");
+	private static final String AUTH_BASE = (IDENTITY_BASE != null) ? IDENTITY_BASE : "https://login.xero.com/identity";
+	private static final String TOKEN_URL = ((IDENTITY_BASE != null) ? IDENTITY_BASE : "https://identity.xero.com") + "/connect/token";
+
+	// how long the user has to finish logging in before the attempt fails
+	private static final Duration LOGIN_TIMEOUT = Duration.ofMinutes(3);
+
+	private static String defaultRedirectUri() {
 	    // On Render, set XERO_REDIRECT to: https://<your-service>.onrender.com/callback
 	    // Locally, it falls back to the loopback URL.
 	    return System.getenv().getOrDefault("XERO_REDIRECT", "http://127.0.0.1:8721/callback");
@@ -39,36 +45,99 @@ public class XeroClient {
 
 
 	private static final String TOKEN_BASE = "https://identity.xero.com";
-	private static final String API_BASE   = "https://api.xero.com";
+	private static final String API_BASE   = System.getenv().getOrDefault("XERO_API_BASE", "https://api.xero.com");
+
+
+
+    // one connection pool and dispatcher for the whole app
+    private static final OkHttpClient HTTP = new OkHttpClient();
+
+    private static final Map<String, XeroClient> SHARED = new java.util.concurrent.ConcurrentHashMap<>();
+
+    // Contacts and Quotes come back this many per page
+    private static final int CONTACTS_PAGE_SIZE = 100;
+    private static final int QUOTES_PAGE_SIZE = 100;
+
+    // items per batch POST; Xero suggests keeping batches around this size
+    private static final int BATCH_SIZE = 50;
 
+    // watermarks stop this far before a sync started, allowing for our clock being ahead of Xero's
+    private static final long WATERMARK_SKEW_MILLIS = 5 * 60_000;
 
+    // a quote version this recent is used for its PDF without asking Xero again
+    private static final long VERSION_TRUST_MILLIS = 60_000;
 
-    private final OkHttpClient http = new OkHttpClient();
+    /** One quote for {@link #createDraftQuotes}. */
+    public record DraftQuote(String contactId, String jobTitle, String referenceText,
+                             double unitAmount, String accountCode) {}
+
+    /** One contact for {@link #upsertContacts}. */
+    public record NewContact(String name, String email) {}
+
+    /** Where a quote is up to in Xero. reference is what we set, e.g. "Quote 5462". */
+    public record QuoteStatus(String quoteId, String reference, String status, long updatedAt) {}
+
+    /** Outcome of one item in a batch: the Xero id, or why that item failed. */
+    public record ItemResult(int index, String id, String error) {
+        public boolean ok() {
+            return error == null;
+        }
+    }
+
+    private final OkHttpClient http = HTTP;
     private final String clientId;
-    private final Path tokenFile;
+    private final String apiBase;
+    private final String authBase;
+    private final String tokenUrl;
+    private final String redirectUri;
     private final Path tenantFile;
+    private final XeroContactCache contactCache;
+    private final XeroPdfCache pdfCache;
+    private final XeroContactMirror contactMirror;
+    private final Object syncLock = new Object();
+    private final XeroTokenManager tokens;
+    private final Object loginLock = new Object();
+    private final Object tenantLock = new Object();
+    private LoginAttempt login;                  // guarded by loginLock
+    private volatile java.util.function.Consumer<String> browser = XeroClient::openInDesktopBrowser;
+
+    private volatile String accessToken;   // latest valid one, set by ensureAuthenticated()
+    private volatile String tenantId;
+
+    /**
+     * The application-wide client for this Xero app. Everything should use this one, so
+     * there is a single token manager (and so a single refresh in flight) per app.
+     */
+    public static XeroClient shared(String clientId) {
+        return SHARED.computeIfAbsent(clientId, XeroClient::new);
+    }
 
-    private String accessToken;
-    private String refreshToken;
-    private Instant accessExpiry;
-    private String tenantId;
+    private XeroClient(String clientId) {
+        // Use DATA_DIR (Render will set DATA_DIR=/data; locally falls back to ./data)
+        this(clientId, Paths.get(System.getenv().getOrDefault("DATA_DIR", "data")),
+                API_BASE, AUTH_BASE, TOKEN_URL, defaultRedirectUri());
+    }
 
-    public XeroClient(String clientId) {
+    // Tests point a client at stand-in servers and a scratch data dir with this
+    XeroClient(String clientId, Path base, String apiBase, String authBase, String tokenUrl, String redirectUri) {
         this.clientId = clientId;
+        this.apiBase = apiBase;
+        this.authBase = authBase;
+        this.tokenUrl = tokenUrl;
+        this.redirectUri = redirectUri;
 
-        // Use DATA_DIR (Render will set DATA_DIR=/data; locally falls back to ./data)
-        String dataDir = System.getenv().getOrDefault("DATA_DIR", "data");
-        Path base = Paths.get(dataDir);
         try {
             Files.createDirectories(base);
         } catch (IOException ioe) {
-            throw new RuntimeException("Could not create DATA_DIR: " + dataDir, ioe);
+            throw new RuntimeException("Could not create DATA_DIR: " + base, ioe);
         }
 
-        this.tokenFile  = base.resolve("xero_tokens.json");
         this.tenantFile = base.resolve("xero_tenant.json");
+        this.contactCache = XeroContactCache.open(base.resolve("xero_contacts.json"));
+        this.pdfCache = XeroPdfCache.open(base.resolve("xero_pdfs"));
+        this.contactMirror = XeroContactMirror.open(base.resolve("xero_contact_mirror.json"));
+        this.tokens = new XeroTokenManager(HTTP, clientId, tokenUrl, base.resolve("xero_tokens.json"));
 
-        loadTokens();
         loadTenant();
     }
 
@@ -76,38 +145,129 @@ public class XeroClient {
     /* ======================= PUBLIC API ======================= */
 
     public void ensureAuthenticated() throws Exception {
-        if (accessToken == null || accessExpiry == null || Instant.now().isAfter(accessExpiry.minusSeconds(60))) {
-            if (refreshToken != null) {
-                tryRefresh();
-            } else {
-                doInteractiveLogin();
-            }
+        // normally just returns the current token; refreshes are shared and mostly done ahead
+        XeroTokenManager.Token t = tokens.valid();
+        if (t == null) {
+            t = awaitLogin();
         }
+        accessToken = t.accessToken();
+
         if (tenantId == null || tenantId.isBlank()) {
-            pickTenant();
+            // its own lock: a slow /connections call mustn't hold up logins
+            synchronized (tenantLock) {
+                if (tenantId == null || tenantId.isBlank()) pickTenant();
+            }
         }
     }
 
+    /**
+     * Is there a token to call Xero with (refreshing it if due)? Never starts a login, so
+     * background work checks this first rather than opening a login nobody asked for.
+     */
+    public boolean isConnected() throws IOException {
+        return tokens.valid() != null;
+    }
+
+    /**
+     * Log in to Xero in the browser. Completes when Xero redirects back and the code has
+     * been exchanged for tokens, or fails after LOGIN_TIMEOUT. Nothing waits on the
+     * calling thread. While one login is under way every caller gets the same future,
+     * so there's only ever one browser window. If we're already logged in it completes
+     * straight away. The login page is opened with the browser set by setBrowser().
+     */
+    public CompletableFuture<XeroTokenManager.Token> loginAsync() {
+        return loginAsync(browser);
+    }
+
+    /** Same, opening the login page with openUrl (e.g. in the session that asked). */
+    public CompletableFuture<XeroTokenManager.Token> loginAsync(java.util.function.Consumer<String> openUrl) {
+        synchronized (loginLock) {
+            if (login != null && !login.result.isDone()) {
+                return login.result;
+            }
+        }
+        try {
+            // outside the lock: this may be a refresh, i.e. a network call
+            XeroTokenManager.Token t = tokens.valid();
+            if (t != null) return CompletableFuture.completedFuture(t);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        synchronized (loginLock) {
+            if (login != null && !login.result.isDone()) {
+                return login.result;   // started while we were checking
+            }
+            XeroTokenManager.Token now = tokens.current();   // or finished: someone just logged in
+            if (now != null) return CompletableFuture.completedFuture(now);
+
+            XeroCallbackEndpoint endpoint;
+            try {
+                endpoint = XeroCallbackEndpoint.shared(redirectUri);
+            } catch (IOException | IllegalStateException e) {
+                // can't listen, or listening for a different redirect URI already
+                return CompletableFuture.failedFuture(e);
+            }
+            LoginAttempt attempt = new LoginAttempt(randomString(64), UUID.randomUUID().toString());
+            attempt.result.orTimeout(LOGIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            endpoint.register(attempt.state, query -> finishLogin(attempt, query));
+            attempt.result.whenComplete((t, e) -> endpoint.unregister(attempt.state));
+            login = attempt;
+
+            String authUrl;
+            try {
+                authUrl = authorizeUrl(attempt);
+            } catch (Exception e) {
+                attempt.result.completeExceptionally(e);
+                return attempt.result;
+            }
+            System.out.println("\n[Xero] Authorize URL:\n" + authUrl + "\n");
+            try {
+                openUrl.accept(authUrl);
+            } catch (Exception e) {
+                // the URL is in the log; it can be opened by hand
+                System.err.println("[Xero] Couldn't open the browser: " + e.getMessage());
+            }
+            return attempt.result;
+        }
+    }
+
+    /**
+     * How to show the login page. The default is the desktop browser, which a headless
+     * server doesn't have; web mode passes HostServices.showDocument instead.
+     */
+    public void setBrowser(java.util.function.Consumer<String> openUrl) {
+        this.browser = openUrl;
+    }
+
     /** Create (or find) a Contact; returns ContactID */
     public String getOrCreateContact(String name, String email) throws Exception {
+        // Repeat clients: straight from the cache, no search call
+        String cached = contactCache.get(email, this::contactStillValid);
+        if (cached != null) {
+            return cached;
+        }
+
         ensureAuthenticated();
 
         // Try find by email
         Request findReq = new Request.Builder()
-                .url(API_BASE + "/api.xro/2.0/Contacts?where=EmailAddress%3D%22" + url(email) + "%22")
+                .url(apiBase + "/api.xro/2.0/Contacts?where=EmailAddress%3D%22" + url(email) + "%22")
                 .get()
                 .header("Authorization", "Bearer " + accessToken)
                 .header("xero-tenant-id", tenantId)
                 .header("Accept", "application/json")
                 .build();
-        try (Response r = http.newCall(findReq).execute()) {
+        try (Response r = callApi(findReq)) {
             if (!r.isSuccessful()) {
                 throw new IOException("Find contact failed: HTTP " + r.code() + "\n" + bodyString(r));
             }
             JSONObject resp = requireJson(r);
             JSONArray arr = resp.getJSONArray("Contacts");
             if (arr.length() > 0) {
-                return arr.getJSONObject(0).getString("ContactID");
+                String id = arr.getJSONObject(0).getString("ContactID");
+                contactCache.put(email, id);
+                return id;
             }
         }
 
@@ -120,20 +280,169 @@ public class XeroClient {
         JSONObject body = new JSONObject().put("Contacts", new JSONArray().put(contact));
 
         Request createReq = new Request.Builder()
-                .url(API_BASE + "/api.xro/2.0/Contacts")
+                .url(apiBase + "/api.xro/2.0/Contacts")
                 .post(RequestBody.create(body.toString(), MediaType.parse("application/json")))
                 .header("Authorization", "Bearer " + accessToken)
                 .header("Accept", "application/json")
                 .header("xero-tenant-id", tenantId)
                 .build();
-        try (Response r = http.newCall(createReq).execute()) {
+        try (Response r = callApi(createReq)) {
             if (!r.isSuccessful()) {
                 throw new IOException("Create contact failed: HTTP " + r.code() + "\n" + bodyString(r));
             }
             JSONObject resp = requireJson(r);
-            return resp.getJSONArray("Contacts").getJSONObject(0).getString("ContactID");
+            String id = resp.getJSONArray("Contacts").getJSONObject(0).getString("ContactID");
+            contactCache.put(email, id);
+            return id;
+        }
+
+    }
+
+    /**
+     * Fill the contact cache for these emails (e.g. every CRM contact), skipping ones
+     * it already has. Looks them up 20 at a time, so this is a handful of calls rather
+     * than one per client. Blocking: run it in the background.
+     */
+    public void seedContactCache(Collection<String> emails) throws Exception {
+        List<String> missing = new ArrayList<>();
+        for (String e : emails) {
+            // a quote can't be escaped inside a where clause
+            if (e != null && !e.isBlank() && e.indexOf('"') < 0 && !contactCache.contains(e)) {
+                missing.add(e.trim());
+            }
+        }
+        if (missing.isEmpty()) return;
+        ensureAuthenticated();
+
+        int found = 0;
+        for (int i = 0; i < missing.size(); i += 20) {
+            List<String> chunk = missing.subList(i, Math.min(missing.size(), i + 20));
+            StringBuilder where = new StringBuilder();
+            for (String e : chunk) {
+                if (where.length() > 0) where.append(" OR ");
+                where.append("EmailAddress==\"").append(e).append('"');
+            }
+            Request req = new Request.Builder()
+                    .url(apiBase + "/api.xro/2.0/Contacts?summaryOnly=true&where=" + url(where.toString()))
+                    .get()
+                    .header("Authorization", "Bearer " + accessToken)
+                    .header("xero-tenant-id", tenantId)
+                    .header("Accept", "application/json")
+                    .build();
+            try (Response r = callApi(req)) {
+                if (!r.isSuccessful()) {
+                    throw new IOException("Contact lookup failed: HTTP " + r.code() + "\n" + bodyString(r));
+                }
+                JSONArray arr = requireJson(r).getJSONArray("Contacts");
+                for (int k = 0; k < arr.length(); k++) {
+                    JSONObject c = arr.getJSONObject(k);
+                    String email = c.optString("EmailAddress", "");
+                    if (!email.isBlank() && !"ARCHIVED".equals(c.optString("ContactStatus"))) {
+                        contactCache.put(email, c.getString("ContactID"));
+                        found++;
+                    }
+                }
+            }
+        }
+        System.out.println("[Xero] Seeded contact cache: " + found + " of " + missing.size() + " emails found");
+    }
+
+    /**
+     * Bring the local contact mirror up to date. The first time that's every contact;
+     * after that, If-Modified-Since the watermark, so only changed ones come back. Also
+     * refreshes the email cache from what came back. Blocking: run it in the background.
+     */
+    public XeroContactMirror.SyncResult syncContactMirror() throws Exception {
+        synchronized (syncLock) {
+            ensureAuthenticated();
+            long startedAt = System.currentTimeMillis();
+            long since = contactMirror.watermark();
+            long newest = since;
+            int pages = 0;
+            int changed = 0;
+
+            for (int page = 1; ; page++) {
+                Request.Builder rb = new Request.Builder()
+                        .url(apiBase + "/api.xro/2.0/Contacts?includeArchived=true&page=" + page)
+                        .get()
+                        .header("Authorization", "Bearer " + accessToken)
+                        .header("xero-tenant-id", tenantId)
+                        .header("Accept", "application/json");
+                if (since > 0) rb.header("If-Modified-Since", ifModifiedSince(since));
+                JSONArray arr;
+                try (Response r = callApi(rb.build())) {
+                    if (r.code() == 304) break;   // nothing changed
+                    if (!r.isSuccessful()) {
+                        throw new IOException("Contacts sync failed: HTTP " + r.code() + "\n" + bodyString(r));
+                    }
+                    arr = requireJson(r).getJSONArray("Contacts");
+                }
+                pages++;
+                for (int k = 0; k < arr.length(); k++) {
+                    XeroContactMirror.Contact c = contactMirror.apply(arr.getJSONObject(k));
+                    newest = Math.max(newest, c.updatedAt());
+                    changed++;
+                    for (String email : c.emails()) {
+                        if (c.archived()) contactCache.remove(email);
+                        else contactCache.put(email, c.contactId());
+                    }
+                }
+                if (arr.length() < CONTACTS_PAGE_SIZE) break;
+            }
+
+            contactMirror.advanceWatermark(cappedWatermark(newest, startedAt));
+            XeroContactMirror.SyncResult result =
+                    new XeroContactMirror.SyncResult(since == 0, pages, changed, contactMirror.size());
+            System.out.println("[Xero] Contact mirror sync: " + result);
+            return result;
+        }
+    }
+
+    /** The local copy of Xero's contacts (see syncContactMirror). */
+    public XeroContactMirror contactMirror() {
+        return contactMirror;
+    }
+
+    /** Cache hits are search calls saved. */
+    public XeroContactCache.Stats contactCacheStats() {
+        return contactCache.stats();
+    }
+
+    // Background check of a cached entry: does the contact still exist, unarchived, with this email?
+    // Runs on the cache's own thread, so never starts a login: with no token it keeps the entry.
+    private boolean contactStillValid(String email, String contactId) throws Exception {
+        XeroTokenManager.Token t = tokens.valid();
+        if (t == null || tenantId == null || tenantId.isBlank()) return true;
+        accessToken = t.accessToken();
+        Request req = new Request.Builder()
+                .url(apiBase + "/api.xro/2.0/Contacts/" + contactId)
+                .get()
+                .header("Authorization", "Bearer " + accessToken)
+                .header("xero-tenant-id", tenantId)
+                .header("Accept", "application/json")
+                .build();
+        try (Response r = callApi(req)) {
+            if (r.code() == 404) return false;
+            if (!r.isSuccessful()) {
+                throw new IOException("Get contact failed: HTTP " + r.code() + "\n" + bodyString(r));
+            }
+            JSONArray arr = requireJson(r).getJSONArray("Contacts");
+            if (arr.length() == 0) return false;
+            JSONObject c = arr.getJSONObject(0);
+            return !"ARCHIVED".equals(c.optString("ContactStatus"))
+                    && email.equalsIgnoreCase(c.optString("EmailAddress", "").trim());
         }
+    }
 
+    // A quote rejected over its contact (deleted, archived, merged): the cached id is bad,
+    // so drop it and let the next attempt look the email up again.
+    private void forgetContact(String contactId) {
+        contactCache.removeContact(contactId);
+        System.out.println("[Xero] Contact " + contactId + " refused for a quote; dropped from cache");
+    }
+
+    private static boolean refusesContact(String error) {
+        return error != null && error.toLowerCase(Locale.ROOT).contains("contact");
     }
 
     /** Creates a DRAFT Quote and returns the QuoteID. */
@@ -142,133 +451,485 @@ public class XeroClient {
                                    String referenceText,
                                    double unitAmount,
                                    String accountCode) throws Exception {
-        ensureAuthenticated();
-
-        JSONObject line = new JSONObject()
-                .put("Description", "Easy Read version of \"" + jobTitle + "\"")
-                .put("Quantity", 1)
-                .put("UnitAmount", unitAmount)
-                .put("AccountCode", accountCode);
+        return createDraftQuote(contactId, jobTitle, referenceText, unitAmount, accountCode, null);
+    }
 
-        JSONObject quote = new JSONObject()
-                .put("Contact", new JSONObject().put("ContactID", contactId))
-                .put("Date", java.time.LocalDate.now().toString())
-                .put("ExpiryDate", java.time.LocalDate.now().plusDays(14).toString())
-                .put("Title", jobTitle)
-                .put("Reference", referenceText)
-                .put("Status", "DRAFT")
-                .put("LineItems", new JSONArray().put(line));
+    /**
+     * Same, sending idempotencyKey as Xero's Idempotency-Key header (if not null):
+     * a repeat with the same key returns the first quote instead of making another.
+     */
+    public String createDraftQuote(String contactId,
+                                   String jobTitle,
+                                   String referenceText,
+                                   double unitAmount,
+                                   String accountCode,
+                                   String idempotencyKey) throws Exception {
+        ensureAuthenticated();
 
+        JSONObject quote = quoteJson(new DraftQuote(contactId, jobTitle, referenceText, unitAmount, accountCode));
         JSONObject body = new JSONObject().put("Quotes", new JSONArray().put(quote));
 
-        Request req = new Request.Builder()
-                .url(API_BASE + "/api.xro/2.0/Quotes")
+        Request.Builder rb = new Request.Builder()
+                .url(apiBase + "/api.xro/2.0/Quotes")
                 .post(RequestBody.create(body.toString(), MediaType.parse("application/json")))
                 .header("Authorization", "Bearer " + accessToken)
                 .header("Accept", "application/json")
-                .header("xero-tenant-id", tenantId)
-                .build();
+                .header("xero-tenant-id", tenantId);
+        if (idempotencyKey != null) {
+            rb.header("Idempotency-Key", idempotencyKey);
+        }
+        Request req = rb.build();
 
-        try (Response r = http.newCall(req).execute()) {
+        try (Response r = callApi(req)) {
             if (!r.isSuccessful()) {
-                throw new IOException("Create quote failed: HTTP " + r.code() + "\n" + bodyString(r));
+                String error = bodyString(r);
+                if (r.code() == 400 && refusesContact(elementErrors(error))) forgetContact(contactId);
+                throw new IOException("Create quote failed: HTTP " + r.code() + "\n" + error);
             }
-            JSONObject resp = requireJson(r);
-            return resp.getJSONArray("Quotes").getJSONObject(0).getString("QuoteID");
+            JSONObject created = requireJson(r).getJSONArray("Quotes").getJSONObject(0);
+            String quoteId = created.getString("QuoteID");
+            pdfCache.noteVersion(quoteId, created.optString("UpdatedDateUTC", null));
+            return quoteId;
         }
     }
 
-    /** Downloads the Quote PDF to the given path. */
+    /**
+     * Creates many DRAFT quotes, BATCH_SIZE per request. Results come back in the same
+     * order as the input, one per quote: a quote Xero rejected (or one in a batch that
+     * failed outright) gets an error, and the rest still go through.
+     */
+    public List<ItemResult> createDraftQuotes(List<DraftQuote> quotes) throws Exception {
+        ensureAuthenticated();
+        List<ItemResult> results = new ArrayList<>(quotes.size());
+        String call = UUID.randomUUID().toString();
+        for (int i = 0; i < quotes.size(); i += BATCH_SIZE) {
+            List<DraftQuote> chunk = quotes.subList(i, Math.min(quotes.size(), i + BATCH_SIZE));
+            JSONArray items = new JSONArray();
+            for (DraftQuote q : chunk) items.put(quoteJson(q));
+            List<ItemResult> done = postBatch("Quotes", "QuoteID", items, i,
+                    call + "-" + (i / BATCH_SIZE), pdfCache::noteVersion);
+            for (int k = 0; k < done.size(); k++) {
+                String error = done.get(k).error();
+                if (error != null && !error.startsWith("Batch request failed") && refusesContact(error)) {
+                    forgetContact(chunk.get(k).contactId());
+                }
+            }
+            results.addAll(done);
+        }
+        logBatch("quotes", results);
+        return results;
+    }
+
+    /**
+     * Returns the ContactID for each of these, in input order, creating the ones Xero
+     * doesn't have yet. Known emails come from the cache or one search per 20, then the
+     * rest are created BATCH_SIZE per request. The same email twice gets one contact.
+     * If the search fails, emails that aren't cached get that error and aren't created.
+     */
+    public List<ItemResult> upsertContacts(List<NewContact> contacts) throws Exception {
+        List<String> emails = new ArrayList<>();
+        for (NewContact c : contacts) emails.add(c.email());
+        String lookupError = null;
+        try {
+            seedContactCache(emails);
+        } catch (Exception e) {
+            // don't create contacts we couldn't look for; they may well exist already
+            lookupError = "Contact lookup failed: " + e.getMessage();
+        }
+
+        ItemResult[] results = new ItemResult[contacts.size()];
+        Map<String, List<Integer>> toCreate = new LinkedHashMap<>();   // email -> input positions
+        for (int i = 0; i < contacts.size(); i++) {
+            NewContact c = contacts.get(i);
+            if (c.email() == null || c.email().isBlank()) {
+                results[i] = new ItemResult(i, null, "No email address");
+                continue;
+            }
+            String id = contactCache.get(c.email(), this::contactStillValid);
+            if (id != null) {
+                results[i] = new ItemResult(i, id, null);
+            } else if (lookupError != null) {
+                results[i] = new ItemResult(i, null, lookupError);
+            } else {
+                toCreate.computeIfAbsent(c.email().trim().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        if (!toCreate.isEmpty()) {
+            ensureAuthenticated();
+            List<List<Integer>> positions = new ArrayList<>(toCreate.values());
+            String call = UUID.randomUUID().toString();
+            for (int i = 0; i < positions.size(); i += BATCH_SIZE) {
+                List<List<Integer>> chunk = positions.subList(i, Math.min(positions.size(), i + BATCH_SIZE));
+                JSONArray items = new JSONArray();
+                for (List<Integer> at : chunk) {
+                    NewContact c = contacts.get(at.get(0));
+                    items.put(new JSONObject().put("Name", c.name()).put("EmailAddress", c.email().trim()));
+                }
+                List<ItemResult> created = postBatch("Contacts", "ContactID", items, 0,
+                        call + "-" + (i / BATCH_SIZE), null);
+                for (int k = 0; k < chunk.size(); k++) {
+                    ItemResult r = created.get(k);
+                    if (r.ok()) contactCache.put(contacts.get(chunk.get(k).get(0)).email(), r.id());
+                    for (int at : chunk.get(k)) results[at] = new ItemResult(at, r.id(), r.error());
+                }
+            }
+        }
+
+        List<ItemResult> out = Arrays.asList(results);
+        logBatch("contacts", out);
+        return out;
+    }
+
+    /**
+     * Puts the quote's PDF at dest. Served from the local PDF cache when the cached copy
+     * is of the quote's current version (see cachedQuotePdf); otherwise streamed from Xero into the cache
+     * first. dest is replaced atomically, and left alone if it's already the same PDF.
+     */
     public void downloadQuotePdf(String quoteId, Path dest) throws Exception {
+        Path pdf = cachedQuotePdf(quoteId);
+        if (Files.exists(dest) && Files.mismatch(pdf, dest) == -1) return;
+        AtomicFiles.write(dest, out -> Files.copy(pdf, out));
+    }
+
+    /**
+     * The quote's PDF in the local cache, downloading it if needed. Unless Xero told us
+     * the quote's version in the last VERSION_TRUST_MILLIS (e.g. we just created it), one
+     * small GET checks its UpdatedDateUTC first, so an edit made in Xero isn't missed.
+     */
+    public Path cachedQuotePdf(String quoteId) throws Exception {
+        String version = pdfCache.freshVersion(quoteId, VERSION_TRUST_MILLIS);
+        if (version == null) {
+            version = fetchQuoteVersion(quoteId);
+        }
+        return pdfCache.get(quoteId, version, this::streamQuotePdf);
+    }
+
+    /**
+     * Downloads many quotes' PDFs (QuoteID -> destination), at most parallelism at once.
+     * Cached ones that are still current are just copied. Returns the error for each quote that failed, keyed
+     * by QuoteID; empty if they all worked.
+     */
+    public Map<String, String> downloadQuotePdfs(Map<String, Path> destinations, int parallelism) throws Exception {
+        Map<String, String> errors = new java.util.concurrent.ConcurrentHashMap<>();
+        if (destinations.isEmpty()) return errors;
+        ensureAuthenticated();   // once up front, not once per worker
+
+        var pool = java.util.concurrent.Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "xero-pdf-download");
+            t.setDaemon(true);
+            return t;
+        });
+        try (pool) {
+            for (Map.Entry<String, Path> e : destinations.entrySet()) {
+                pool.execute(() -> {
+                    try {
+                        downloadQuotePdf(e.getKey(), e.getValue());
+                    } catch (Exception ex) {
+                        errors.put(e.getKey(), String.valueOf(ex.getMessage()));
+                    }
+                });
+            }
+        }   // close() waits for them all
+        System.out.println("[Xero] Downloaded " + (destinations.size() - errors.size()) + " of "
+                + destinations.size() + " quote PDFs; cache " + pdfCache.stats());
+        return errors;
+    }
+
+    public XeroPdfCache.Stats pdfCacheStats() {
+        return pdfCache.stats();
+    }
+
+    // The quote's current UpdatedDateUTC (and remember it)
+    private String fetchQuoteVersion(String quoteId) throws Exception {
+        ensureAuthenticated();
+        Request req = new Request.Builder()
+                .url(apiBase + "/api.xro/2.0/Quotes/" + quoteId)
+                .get()
+                .header("Authorization", "Bearer " + accessToken)
+                .header("xero-tenant-id", tenantId)
+                .header("Accept", "application/json")
+                .build();
+        try (Response r = callApi(req)) {
+            if (!r.isSuccessful()) {
+                throw new IOException("Get quote failed: HTTP " + r.code() + "\n" + bodyString(r));
+            }
+            JSONArray arr = requireJson(r).getJSONArray("Quotes");
+            String version = (arr.length() > 0) ? arr.getJSONObject(0).optString("UpdatedDateUTC", null) : null;
+            pdfCache.noteVersion(quoteId, version);
+            return version;
+        }
+    }
+
+    // Streams the PDF straight to disk, never holding it in memory
+    private void streamQuotePdf(String quoteId, Path into) throws Exception {
         ensureAuthenticated();
         Request req = new Request.Builder()
-                .url(API_BASE + "/api.xro/2.0/Quotes/" + quoteId + "/pdf")
+                .url(apiBase + "/api.xro/2.0/Quotes/" + quoteId + "/pdf")
                 .get()
                 .header("Authorization", "Bearer " + accessToken)
                 .header("xero-tenant-id", tenantId)
                 .header("Accept", "application/pdf")
                 .build();
-        try (Response r = http.newCall(req).execute()) {
+        try (Response r = callApi(req)) {
             if (!r.isSuccessful()) throw new IOException("Download PDF failed: " + r);
-            Files.createDirectories(dest.getParent());
             try (InputStream in = r.body().byteStream();
-                 OutputStream out = Files.newOutputStream(dest)) {
+                 OutputStream out = Files.newOutputStream(into)) {
                 in.transferTo(out);
             }
         }
     }
 
+    /**
+     * Every quote changed since sinceMillis (epoch millis; 0 for all of them), from
+     * /Quotes with If-Modified-Since. Normally one request, however many quotes we have:
+     * only when more than a page changed does it page on. Also tells the PDF cache
+     * about the new versions, so changed PDFs get downloaded again. A watermark moved on
+     * from these should stop at when the call began (see cappedWatermark).
+     */
+    public List<QuoteStatus> changedQuotesSince(long sinceMillis) throws Exception {
+        ensureAuthenticated();
+        List<QuoteStatus> out = new ArrayList<>();
+        for (int page = 1; ; page++) {
+            Request.Builder rb = new Request.Builder()
+                    .url(apiBase + "/api.xro/2.0/Quotes?page=" + page)
+                    .get()
+                    .header("Authorization", "Bearer " + accessToken)
+                    .header("xero-tenant-id", tenantId)
+                    .header("Accept", "application/json");
+            if (sinceMillis > 0) rb.header("If-Modified-Since", ifModifiedSince(sinceMillis));
+
+            JSONArray arr;
+            try (Response r = callApi(rb.build())) {
+                if (r.code() == 304) break;   // nothing changed
+                if (!r.isSuccessful()) {
+                    throw new IOException("Quotes poll failed: HTTP " + r.code() + "\n" + bodyString(r));
+                }
+                arr = requireJson(r).getJSONArray("Quotes");
+            }
+            for (int k = 0; k < arr.length(); k++) {
+                JSONObject q = arr.getJSONObject(k);
+                String updated = q.optString("UpdatedDateUTC", null);
+                pdfCache.noteVersion(q.getString("QuoteID"), updated);
+                out.add(new QuoteStatus(
+                        q.getString("QuoteID"),
+                        q.optString("Reference", null),
+                        q.optString("Status", null),
+                        XeroContactMirror.parseXeroDate(updated)));
+            }
+            if (arr.length() < QUOTES_PAGE_SIZE) break;
+        }
+        return out;
+    }
+
+    /*
+     * Where to start the next If-Modified-Since fetch, after one that began at startedAt
+     * saw changes up to newest. Never later than the start: something edited while we
+     * paged may sit on a page we'd already read, while a later page is newer still.
+     */
+    static long cappedWatermark(long newest, long startedAt) {
+        return Math.min(newest, startedAt - WATERMARK_SKEW_MILLIS);
+    }
+
+    // Xero wants If-Modified-Since as a UTC timestamp, e.g. 2024-03-01T09:30:00
+    private static String ifModifiedSince(long epochMillis) {
+        return java.time.format.DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(
+                java.time.LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(epochMillis), java.time.ZoneOffset.UTC)
+                        .truncatedTo(java.time.temporal.ChronoUnit.SECONDS));
+    }
+
+    // The JSON for one draft quote, single or batched
+    private static JSONObject quoteJson(DraftQuote q) {
+        JSONObject line = new JSONObject()
+                .put("Description", "Easy Read version of \"" + q.jobTitle() + "\"")
+                .put("Quantity", 1)
+                .put("UnitAmount", q.unitAmount())
+                .put("AccountCode", q.accountCode());
+
+        return new JSONObject()
+                .put("Contact", new JSONObject().put("ContactID", q.contactId()))
+                .put("Date", java.time.LocalDate.now().toString())
+                .put("ExpiryDate", java.time.LocalDate.now().plusDays(14).toString())
+                .put("Title", q.jobTitle())
+                .put("Reference", q.referenceText())
+                .put("Status", "DRAFT")
+                .put("LineItems", new JSONArray().put(line));
+    }
+
+    /*
+     * POST one batch with summarizeErrors=false, so Xero answers item by item (in order,
+     * each with its own StatusAttributeString) rather than failing the whole request on
+     * the first bad item. If the request itself fails, every item in it gets that error.
+     * Indexes in the results start at firstIndex; onUpdated (if given) gets each new
+     * item's id and UpdatedDateUTC. The caller makes idempotencyKey fresh per call and
+     * chunk, so only retries of this very request (a 503 retried by callApi) share it;
+     * two separate calls with the same content are two separate creates.
+     */
+    private List<ItemResult> postBatch(String collection, String idField, JSONArray items, int firstIndex,
+                                       String idempotencyKey,
+                                       java.util.function.BiConsumer<String, String> onUpdated) {
+        List<ItemResult> results = new ArrayList<>(items.length());
+        String body = new JSONObject().put(collection, items).toString();
+        Request req = new Request.Builder()
+                .url(apiBase + "/api.xro/2.0/" + collection + "?summarizeErrors=false")
+                .post(RequestBody.create(body, MediaType.parse("application/json")))
+                .header("Authorization", "Bearer " + accessToken)
+                .header("Accept", "application/json")
+                .header("xero-tenant-id", tenantId)
+                .header("Idempotency-Key", idempotencyKey)
+                .build();
+
+        JSONArray returned;
+        try (Response r = callApi(req)) {
+            if (!r.isSuccessful()) {
+                throw new IOException("HTTP " + r.code() + "\n" + first(bodyString(r), 800));
+            }
+            returned = requireJson(r).getJSONArray(collection);
+        } catch (Exception e) {
+            String error = "Batch request failed: " + e.getMessage();
+            for (int k = 0; k < items.length(); k++) results.add(new ItemResult(firstIndex + k, null, error));
+            return results;
+        }
+
+        for (int k = 0; k < items.length(); k++) {
+            int index = firstIndex + k;
+            JSONObject o = returned.optJSONObject(k);
+            if (o == null) {
+                results.add(new ItemResult(index, null, "Missing from Xero's response"));
+            } else if ("ERROR".equals(o.optString("StatusAttributeString")) || o.optString(idField, "").isBlank()) {
+                results.add(new ItemResult(index, null, validationErrors(o)));
+            } else {
+                results.add(new ItemResult(index, o.getString(idField), null));
+                if (onUpdated != null) onUpdated.accept(o.getString(idField), o.optString("UpdatedDateUTC", null));
+            }
+        }
+        return results;
+    }
+
+    private static String validationErrors(JSONObject item) {
+        JSONArray errs = item.optJSONArray("ValidationErrors");
+        if (errs == null || errs.isEmpty()) return "Rejected by Xero";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < errs.length(); i++) {
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(errs.getJSONObject(i).optString("Message", "?"));
+        }
+        return sb.toString();
+    }
+
+    // The ValidationErrors messages in a ValidationException body; "" if it isn't one
+    private static String elementErrors(String body) {
+        try {
+            JSONArray elements = new JSONObject(body).optJSONArray("Elements");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; elements != null && i < elements.length(); i++) {
+                JSONObject o = elements.optJSONObject(i);
+                if (o == null || o.optJSONArray("ValidationErrors") == null) continue;
+                if (sb.length() > 0) sb.append("; ");
+                sb.append(validationErrors(o));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    private static void logBatch(String what, List<ItemResult> results) {
+        long failed = results.stream().filter(r -> !r.ok()).count();
+        System.out.println("[Xero] Batch " + what + ": " + (results.size() - failed) + " ok, " + failed + " failed");
+    }
+
     /* ======================= AUTH / TENANT ======================= */
 
-    private void doInteractiveLogin() throws Exception {
-    	String verifier  = randomString(64);
-    	String challenge = base64UrlNoPad(sha256(verifier));
-    	String scope = String.join(" ",
-    	        List.of("offline_access",
-    	                "accounting.contacts","accounting.transactions","accounting.settings"));
-
-    	String state = UUID.randomUUID().toString();
-    	String authUrl = AUTH_BASE + "/connect/authorize?" +
-    	        "response_type=code" +
-    	        "&client_id=" + url(clientId) +
-    	        "&redirect_uri=" + url(redirectUri()) +
-    	        "&scope=" + url(scope) +
-    	        "&code_challenge=" + url(challenge) +
-    	        "&code_challenge_method=S256" +
-    	        "&prompt=login" +                 // <— force fresh login screen
-    	        "&state=" + url(state);
-
-    	System.out.println("\n[Xero] Authorize URL:\n" + authUrl + "\n");
-
-    	// tiny local HTTP server to catch the redirect
-    	final String[] codeHolder = new String[1];
-    	var server = com.sun.net.httpserver.HttpServer.create(
-    	        new java.net.InetSocketAddress("127.0.0.1", LOCAL_PORT), 0);
-
-    	server.createContext("/callback", exchange -> {
-    	    String q = exchange.getRequestURI().getQuery();
-    	    Map<String,String> map = parseQuery(q);
-    	    codeHolder[0] = map.get("code");
-    	    String body = "<html><body style='font:14px system-ui'>OK, you can close this window.</body></html>";
-    	    exchange.sendResponseHeaders(200, body.length());
-    	    try (var os = exchange.getResponseBody()) { os.write(body.getBytes(java.nio.charset.StandardCharsets.UTF_8)); }
-    	});
-    	server.start();
-    	System.out.println("[Xero] Local redirect listener started on " + redirectUri());
-
-    	java.awt.Desktop.getDesktop().browse(new java.net.URI(authUrl));
-
-    	// Wait for code with a timeout (90s)
-    	long start = System.currentTimeMillis();
-    	while (codeHolder[0] == null && System.currentTimeMillis() - start < 90_000) {
-    	    Thread.sleep(150);
-    	}
-    	server.stop(0);
-
-    	if (codeHolder[0] == null) {
-    	    throw new IOException("Did not receive redirect from Xero. "
-    	            + "Check that the exact redirect URI is registered in the Xero app: "
-    	            + redirectUri() + "  (and try in a private/incognito window).");
-    	}
-    	System.out.println("[Xero] Received auth code.");
-
-        Desktop.getDesktop().browse(new URI(authUrl));
-
-        // wait for code
-        while (codeHolder[0] == null) Thread.sleep(150);
-
-     // Exchange code → tokens  (add debug)
-     // Exchange code → tokens  (add debug)
+    // One browser login: its PKCE verifier, the state Xero must echo back, and the outcome
+    private static final class LoginAttempt {
+        final String verifier;
+        final String state;
+        final CompletableFuture<XeroTokenManager.Token> result = new CompletableFuture<>();
+
+        LoginAttempt(String verifier, String state) {
+            this.verifier = verifier;
+            this.state = state;
+        }
+    }
+
+    // Blocking callers (everything in the public API) wait here for the shared login
+    private XeroTokenManager.Token awaitLogin() throws Exception {
+        try {
+            return loginAsync().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new IOException("Did not receive redirect from Xero within " + LOGIN_TIMEOUT.toMinutes()
+                        + " minutes. Check that the exact redirect URI is registered in the Xero app: "
+                        + redirectUri + "  (and try in a private/incognito window).");
+            }
+            if (cause instanceof Exception ex) throw ex;
+            throw e;
+        }
+    }
+
+    private String authorizeUrl(LoginAttempt attempt) throws Exception {
+        String challenge = base64UrlNoPad(sha256(attempt.verifier));
+        String scope = String.join(" ",
+                List.of("offline_access",
+                        "accounting.contacts","accounting.transactions","accounting.settings"));
+
+        return authBase + "/connect/authorize?" +
+                "response_type=code" +
+                "&client_id=" + url(clientId) +
+                "&redirect_uri=" + url(redirectUri) +
+                "&scope=" + url(scope) +
+                "&code_challenge=" + url(challenge) +
+                "&code_challenge_method=S256" +
+                "&prompt=login" +                 // <— force fresh login screen
+                "&state=" + url(attempt.state);
+    }
+
+    // Xero's redirect for this attempt: swap the code for tokens and finish it
+    private String finishLogin(LoginAttempt attempt, Map<String,String> q) {
+        if (attempt.result.isDone()) {
+            return "This login has expired. Start again from the app.";
+        }
+        String code = q.get("code");
+        if (code == null) {
+            String error = q.getOrDefault("error", "no code in redirect");
+            attempt.result.completeExceptionally(new IOException("Xero login failed: " + error));
+            return "Login failed (" + error + "). You can close this window.";
+        }
+        try {
+            System.out.println("[Xero] Received auth code.");
+            attempt.result.complete(exchangeCode(code, attempt.verifier));
+            return "OK, you can close this window.";
+        } catch (Exception e) {
+            attempt.result.completeExceptionally(e);
+            return "Login failed: " + e.getMessage();
+        }
+    }
+
+    private static void openInDesktopBrowser(String url) {
+        if (GraphicsEnvironment.isHeadless() || !Desktop.isDesktopSupported()) {
+            System.out.println("[Xero] No desktop browser here; open the URL above to log in.");
+            return;
+        }
+        try {
+            Desktop.getDesktop().browse(new URI(url));
+        } catch (Exception e) {
+            System.err.println("[Xero] Couldn't open the browser: " + e.getMessage());
+        }
+    }
+
+    private XeroTokenManager.Token exchangeCode(String code, String verifier) throws IOException {
         RequestBody form = new FormBody.Builder()
                 .add("grant_type","authorization_code")
                 .add("client_id", clientId)
-                .add("code", codeHolder[0])
-                .add("redirect_uri", redirectUri())
+                .add("code", code)
+                .add("redirect_uri", redirectUri)
                 .add("code_verifier", verifier)
                 .build();
 
         Request req = new Request.Builder()
-                .url(TOKEN_URL + "/connect/token")
+                .url(tokenUrl)
                 .post(form)
                 .header("Accept", "application/json")
                 .build();
@@ -276,57 +937,22 @@ public class XeroClient {
         try (Response r = http.newCall(req).execute()) {
             String raw = (r.body() == null) ? "" : r.body().string();
             System.out.println("[Xero] Token exchange HTTP " + r.code());
-            System.out.println("[Xero] Token exchange body:\n" + raw);
 
             if (!r.isSuccessful()) {
                 throw new IOException("Token exchange failed. HTTP " + r.code() + "\n" + first(raw, 1200));
             }
-            JSONObject tok = new JSONObject(raw);
-            applyAndSaveTokens(tok);
+            return tokens.apply(new JSONObject(raw));
         }
-
-
-
-
-    }
-
-    private void tryRefresh() throws Exception {
-    	RequestBody form = new FormBody.Builder()
-    	        .add("grant_type","refresh_token")
-    	        .add("client_id", clientId)
-    	        .add("refresh_token", refreshToken)
-    	        .build();
-
-    	Request req = new Request.Builder()
-    	        .url(TOKEN_URL + "/connect/token")
-    	        .post(form)
-    	        .header("Accept", "application/json")
-    	        .build();
-
-    	try (Response r = http.newCall(req).execute()) {
-    	    String raw = (r.body() == null) ? "" : r.body().string();
-    	    System.out.println("[Xero] Refresh HTTP " + r.code());
-    	    System.out.println("[Xero] Refresh body:\n" + raw);
-
-    	    if (!r.isSuccessful()) {
-    	        // fall back to interactive login
-    	        throw new IOException("Refresh failed. HTTP " + r.code() + "\n" + first(raw, 1200));
-    	    }
-    	    JSONObject tok = new JSONObject(raw);
-    	    applyAndSaveTokens(tok);
-    	}
-
-
     }
 
     private void pickTenant() throws Exception {
         Request req = new Request.Builder()
-                .url(API_BASE + "/connections")
+                .url(apiBase + "/connections")
                 .get()
                 .header("Authorization","Bearer " + accessToken)
                 .build();
 
-        try (Response r = http.newCall(req).execute()) {
+        try (Response r = callApi(req)) {
             if (!r.isSuccessful()) {
                 throw new IOException("Get connections failed: HTTP " + r.code() + "\n" + bodyString(r));
             }
@@ -347,32 +973,10 @@ public class XeroClient {
 
     /* ======================= UTIL / STATE ======================= */
 
-    private void applyAndSaveTokens(JSONObject tok) throws Exception {
-        accessToken  = tok.getString("access_token");
-        refreshToken = tok.getString("refresh_token");
-        accessExpiry = Instant.now().plusSeconds(tok.getLong("expires_in"));
-        JSONObject toSave = new JSONObject()
-                .put("access_token", accessToken)
-                .put("refresh_token", refreshToken)
-                .put("expires_at", accessExpiry.toEpochMilli());
-        Files.createDirectories(tokenFile.getParent());
-        Files.writeString(tokenFile, toSave.toString(2), StandardCharsets.UTF_8);
-    }
-
-    private void loadTokens() {
-        try {
-            if (!Files.exists(tokenFile)) return;
-            JSONObject tok = new JSONObject(Files.readString(tokenFile, StandardCharsets.UTF_8));
-            accessToken  = tok.getString("access_token");
-            refreshToken = tok.getString("refresh_token");
-            accessExpiry = Instant.ofEpochMilli(tok.getLong("expires_at"));
-        } catch (Exception ignored) {}
-    }
-
     private void saveTenant() throws Exception {
         JSONObject j = new JSONObject().put("tenantId", tenantId);
         Files.createDirectories(tenantFile.getParent());
-        Files.writeString(tenantFile, j.toString(2), StandardCharsets.UTF_8);
+        AtomicFiles.writeString(tenantFile, j.toString(2));
     }
 
     private void loadTenant() {
@@ -385,27 +989,15 @@ public class XeroClient {
 
     /* ---------------- small helpers ---------------- */
 
-    private static Map<String,String> parseQuery(String q) {
-        Map<String,String> m = new HashMap<>();
-        if (q == null) return m;
-        for (String p : q.split("&")) {
-            String[] kv = p.split("=",2);
-            m.put(urlDecode(kv[0]), kv.length>1 ? urlDecode(kv[1]) : "");
-        }
-        return m;
+    // api.xero.com calls go through the shared Xero rate limiter (queues, retries 429,
+    // and 503 for calls Xero won't act on twice: not a POST, or one with an Idempotency-Key)
+    private Response callApi(Request req) throws IOException {
+        boolean safeToRepeat = !"POST".equals(req.method()) || req.header("Idempotency-Key") != null;
+        return RateLimitScheduler.xero().execute(() -> http.newCall(req).execute(),
+                safeToRepeat, Response::code, Response::header);
     }
-    private static String url(String s){ return URLEncoder.encode(s, StandardCharsets.UTF_8); }
-    private static String urlDecode(String s) {
-        try {
-            // Use the String-based overload so it compiles on all JDKs
-            return java.net.URLDecoder.decode(s, "UTF-8");
-        } catch (java.io.UnsupportedEncodingException e) {
-            // UTF-8 always exists; wrap just to satisfy the compiler
-            throw new RuntimeException(e);
-        }
-    }
-
 
+    private static String url(String s){ return URLEncoder.encode(s, StandardCharsets.UTF_8); }
     private static byte[] sha256(String s) throws Exception {
         MessageDigest md = MessageDigest.getInstance("SHA-256");
         return md.digest(s.getBytes(StandardCharsets.UTF_8));
@@ -427,7 +1019,7 @@ public class XeroClient {
                 .header("Authorization", "Bearer " + accessToken)
                 .header("xero-tenant-id", tenantId)
                 .build();
-        try (var r = http.newCall(req).execute()) {
+        try (var r = callApi(req)) {
             System.out.println("[Xero] Organisations response " + r.code() + ": " + r.body().string());
         }
     }
@@ -0,0 +1,176 @@
+package com.easyread.xero;
+
+import com.easyread.storage.AtomicFiles;
+import com.easyread.storage.DebouncedWriter;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Email -> Xero ContactID, kept in DATA_DIR/xero_contacts.json, so quoting a repeat
+ * client doesn't need a Contacts search first.
+ *
+ * Entries remember when Xero last confirmed them. Once that's older than the TTL the
+ * cached id is still used, but a background check asks Xero whether the contact is
+ * still there (and not archived) and drops the entry if not. Saves are debounced.
+ */
+public class XeroContactCache {
+
+    // how long a confirmed entry is trusted before it's re-checked in the background
+    private static final long TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    private static final Map<String, XeroContactCache> OPEN = new ConcurrentHashMap<>();
+
+    /** Checks an entry against Xero: true if the contact is still usable for this email. */
+    public interface Revalidator {
+        boolean stillValid(String email, String contactId) throws Exception;
+    }
+
+    /** Round trips saved (hits) and made (misses), and what the background checks did. */
+    public record Stats(long hits, long misses, long revalidated, long evicted, int size) {}
+
+    private record Entry(String contactId, long verifiedAt) {}
+
+    private final Path file;
+    private final Map<String, Entry> byEmail = new ConcurrentHashMap<>();
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    private final DebouncedWriter writer;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "xero-contact-revalidator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /** The shared cache for this file. */
+    public static XeroContactCache open(Path file) {
+        return OPEN.computeIfAbsent(file.toAbsolutePath().normalize().toString(), k -> new XeroContactCache(file));
+    }
+
+    private XeroContactCache(Path file) {
+        this.file = file;
+        this.writer = new DebouncedWriter("xero-contacts-writer", 500, this::writeToDisk);
+        load();
+    }
+
+    /**
+     * The cached ContactID for this email, or null (counted as a miss). A stale entry
+     * is still returned, and queued for a background check with the revalidator.
+     */
+    public String get(String email, Revalidator revalidator) {
+        String key = normalize(email);
+        Entry e = (key == null) ? null : byEmail.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (revalidator != null && System.currentTimeMillis() - e.verifiedAt() > TTL_MILLIS) {
+            revalidateLater(key, e, revalidator);
+        }
+        return e.contactId();
+    }
+
+    /** Is there an entry for this email at all? (Not counted as a hit or miss.) */
+    public boolean contains(String email) {
+        String key = normalize(email);
+        return key != null && byEmail.containsKey(key);
+    }
+
+    /** Remember (or re-confirm) that this email belongs to this contact. */
+    public void put(String email, String contactId) {
+        String key = normalize(email);
+        if (key == null || contactId == null) return;
+        byEmail.put(key, new Entry(contactId, System.currentTimeMillis()));
+        writer.request();
+    }
+
+    public void remove(String email) {
+        String key = normalize(email);
+        if (key != null && byEmail.remove(key) != null) writer.request();
+    }
+
+    /** Drop every email cached for this contact, e.g. once Xero has refused it. */
+    public void removeContact(String contactId) {
+        if (contactId == null) return;
+        boolean removed = false;
+        for (Map.Entry<String, Entry> e : byEmail.entrySet()) {
+            if (contactId.equals(e.getValue().contactId()) && byEmail.remove(e.getKey(), e.getValue())) {
+                evicted.incrementAndGet();
+                removed = true;
+            }
+        }
+        if (removed) writer.request();
+    }
+
+    public Stats stats() {
+        return new Stats(hits.get(), misses.get(), revalidated.get(), evicted.get(), byEmail.size());
+    }
+
+    private void revalidateLater(String key, Entry e, Revalidator revalidator) {
+        if (!revalidating.add(key)) return;   // already queued
+        background.execute(() -> {
+            try {
+                if (revalidator.stillValid(key, e.contactId())) {
+                    byEmail.replace(key, e, new Entry(e.contactId(), System.currentTimeMillis()));
+                    revalidated.incrementAndGet();
+                } else if (byEmail.remove(key, e)) {
+                    evicted.incrementAndGet();
+                    System.out.println("[Xero] Contact " + e.contactId() + " for " + key + " is gone; dropped from cache");
+                }
+                writer.request();
+            } catch (Exception ex) {
+                // keep the entry; it's re-checked on the next use
+                System.err.println("[Xero] Couldn't re-check contact for " + key + ": " + ex.getMessage());
+            } finally {
+                revalidating.remove(key);
+            }
+        });
+    }
+
+    private static String normalize(String email) {
+        if (email == null || email.isBlank()) return null;
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // ---- Persistence ----
+
+    private void load() {
+        try {
+            if (!Files.exists(file)) return;
+            JSONObject root = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            for (String email : root.keySet()) {
+                JSONObject o = root.getJSONObject(email);
+                byEmail.put(email, new Entry(o.getString("contactId"), o.optLong("verifiedAt", 0)));
+            }
+            System.out.println("[Xero] " + byEmail.size() + " contacts in cache");
+        } catch (Exception e) {
+            // only a cache: start empty and let it refill
+            System.err.println("[Xero] Couldn't read contact cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void writeToDisk() throws IOException {
+        JSONObject root = new JSONObject();
+        for (Map.Entry<String, Entry> e : byEmail.entrySet()) {
+            root.put(e.getKey(), new JSONObject()
+                    .put("contactId", e.getValue().contactId())
+                    .put("verifiedAt", e.getValue().verifiedAt()));
+        }
+        AtomicFiles.writeString(file, root.toString(2));
+    }
+}
@@ -0,0 +1,232 @@
+package com.easyread.xero;
+
+import com.easyread.storage.AtomicFiles;
+import com.easyread.storage.DebouncedWriter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A local copy of the organisation's Xero contacts, in DATA_DIR/xero_contact_mirror.json,
+ * so the CRM can be matched against Xero without asking about one email at a time.
+ *
+ * XeroClient.syncContactMirror() fills it: the first sync pulls everything, later ones
+ * send the watermark (the newest UpdatedDateUTC seen, but no later than when that sync
+ * began) as If-Modified-Since and only get what changed. Live contacts are indexed by
+ * every email on them and by name. Archived contacts are kept (so an archive is
+ * noticed) but never indexed. Saves are debounced.
+ */
+public class XeroContactMirror {
+
+    private static final Map<String, XeroContactMirror> OPEN = new ConcurrentHashMap<>();
+
+    /** One Xero contact, as much of it as we match on. */
+    public record Contact(String contactId, String name, Set<String> emails, boolean archived, long updatedAt) {}
+
+    /** What one sync did. changed counts contacts Xero sent back. */
+    public record SyncResult(boolean full, int pages, int changed, int total) {}
+
+    private final Path file;
+    private final DebouncedWriter writer;
+
+    // all guarded by this
+    private final Map<String, Contact> byId = new HashMap<>();
+    private final Map<String, String> idByEmail = new HashMap<>();
+    private final Map<String, String> idByName = new HashMap<>();
+    private long watermark;   // epoch millis; 0 = never synced
+
+    /** The shared mirror for this file. */
+    public static XeroContactMirror open(Path file) {
+        return OPEN.computeIfAbsent(file.toAbsolutePath().normalize().toString(), k -> new XeroContactMirror(file));
+    }
+
+    private XeroContactMirror(Path file) {
+        this.file = file;
+        this.writer = new DebouncedWriter("xero-mirror-writer", 500, this::writeToDisk);
+        load();
+    }
+
+    /** Newest UpdatedDateUTC we have, as epoch millis (0 before the first sync). */
+    public synchronized long watermark() {
+        return watermark;
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /** The live (not archived) contact with this email, or null. */
+    public synchronized Contact byEmail(String email) {
+        String key = emailKey(email);
+        return (key == null) ? null : live(idByEmail.get(key));
+    }
+
+    /** The live contact with this name (case and spacing ignored), or null. */
+    public synchronized Contact byName(String name) {
+        String key = nameKey(name);
+        return (key == null) ? null : live(idByName.get(key));
+    }
+
+    /**
+     * The Xero contact a CRM company corresponds to: the one most of its emails belong
+     * to, or failing that the one with the same name. Null if neither matches.
+     */
+    public synchronized String contactIdFor(String companyName, Collection<String> emails) {
+        Map<String, Integer> votes = new HashMap<>();
+        String best = null;
+        for (String e : emails) {
+            Contact c = byEmail(e);
+            if (c == null) continue;
+            int n = votes.merge(c.contactId(), 1, Integer::sum);
+            if (best == null || n > votes.get(best)) best = c.contactId();
+        }
+        if (best != null) return best;
+        Contact named = byName(companyName);
+        return (named == null) ? null : named.contactId();
+    }
+
+    /** Take in one contact from a Contacts response; returns what was stored. */
+    synchronized Contact apply(JSONObject o) {
+        Set<String> emails = new LinkedHashSet<>();
+        addEmail(emails, o.optString("EmailAddress", null));
+        JSONArray people = o.optJSONArray("ContactPersons");
+        if (people != null) {
+            for (int i = 0; i < people.length(); i++) {
+                addEmail(emails, people.getJSONObject(i).optString("EmailAddress", null));
+            }
+        }
+        Contact c = new Contact(
+                o.getString("ContactID"),
+                o.optString("Name", ""),
+                emails,
+                "ARCHIVED".equals(o.optString("ContactStatus")),
+                parseXeroDate(o.optString("UpdatedDateUTC", null)));
+
+        Contact old = byId.put(c.contactId(), c);
+        if (old != null) unindex(old);
+        index(c);
+        writer.request();
+        return c;
+    }
+
+    /**
+     * Move the watermark on, once a sync has seen every page. Never mid-sync: pages come
+     * in name order, so a sync that stops halfway may not have seen older changes yet.
+     */
+    synchronized void advanceWatermark(long updatedAt) {
+        if (updatedAt > watermark) {
+            watermark = updatedAt;
+            writer.request();
+        }
+    }
+
+    // ---- Indexes ----
+
+    // caller holds the lock
+    private Contact live(String contactId) {
+        Contact c = (contactId == null) ? null : byId.get(contactId);
+        return (c == null || c.archived()) ? null : c;
+    }
+
+    // caller holds the lock. Archived contacts aren't indexed, so they never take an
+    // email or name away from a live contact that shares it
+    private void index(Contact c) {
+        if (c.archived()) return;
+        for (String e : c.emails()) idByEmail.put(e, c.contactId());
+        String name = nameKey(c.name());
+        if (name != null) idByName.put(name, c.contactId());
+    }
+
+    // caller holds the lock; only drops keys that still point at this contact
+    private void unindex(Contact c) {
+        for (String e : c.emails()) idByEmail.remove(e, c.contactId());
+        String name = nameKey(c.name());
+        if (name != null) idByName.remove(name, c.contactId());
+    }
+
+    private static void addEmail(Set<String> emails, String email) {
+        String key = emailKey(email);
+        if (key != null) emails.add(key);
+    }
+
+    private static String emailKey(String email) {
+        if (email == null || email.isBlank()) return null;
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String nameKey(String name) {
+        if (name == null || name.isBlank()) return null;
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    // Xero's JSON dates look like /Date(1573755038314+0000)/
+    static long parseXeroDate(String s) {
+        if (s == null) return 0;
+        int open = s.indexOf('(');
+        if (open < 0) return 0;
+        int end = open + 1;
+        while (end < s.length() && (Character.isDigit(s.charAt(end)) || (end == open + 1 && s.charAt(end) == '-'))) end++;
+        try {
+            return Long.parseLong(s.substring(open + 1, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // ---- Persistence ----
+
+    private synchronized void load() {
+        try {
+            if (!Files.exists(file)) return;
+            JSONObject root = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            JSONArray arr = root.optJSONArray("contacts");
+            for (int i = 0; arr != null && i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                Set<String> emails = new LinkedHashSet<>();
+                JSONArray es = o.optJSONArray("emails");
+                for (int k = 0; es != null && k < es.length(); k++) emails.add(es.getString(k));
+                Contact c = new Contact(o.getString("id"), o.optString("name", ""), emails,
+                        o.optBoolean("archived"), o.optLong("updated"));
+                byId.put(c.contactId(), c);
+                index(c);
+            }
+            watermark = root.optLong("watermark", 0);
+            System.out.println("[Xero] " + byId.size() + " contacts in mirror");
+        } catch (Exception e) {
+            // a mirror can always be pulled again: start over with a full sync
+            byId.clear();
+            idByEmail.clear();
+            idByName.clear();
+            watermark = 0;
+            System.err.println("[Xero] Couldn't read contact mirror " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void writeToDisk() throws IOException {
+        JSONObject root;
+        synchronized (this) {
+            JSONArray arr = new JSONArray();
+            for (Contact c : byId.values()) {
+                arr.put(new JSONObject()
+                        .put("id", c.contactId())
+                        .put("name", c.name())
+                        .put("emails", new JSONArray(c.emails()))
+                        .put("archived", c.archived())
+                        .put("updated", c.updatedAt()));
+            }
+            root = new JSONObject().put("watermark", watermark).put("contacts", arr);
+        }
+        AtomicFiles.writeString(file, root.toString());
+    }
+}
@@ -0,0 +1,164 @@
+package com.easyread.xero;
+
+import com.easyread.storage.AtomicFiles;
+import com.easyread.storage.DebouncedWriter;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Quote PDFs as Xero last rendered them, kept under DATA_DIR/xero_pdfs/ so sending a
+ * quote again doesn't download it again.
+ *
+ * A quote's version is its UpdatedDateUTC, which changes whenever it's edited. The
+ * cache remembers the latest version it's been told about (from creating the quote,
+ * or from reading it back) and the version of the PDF on disk; when they match, the
+ * PDF is served from disk instead of downloaded again. Downloads stream into a temp
+ * file that is renamed into place, so a half-written PDF is never served.
+ */
+public class XeroPdfCache {
+
+    private static final Map<String, XeroPdfCache> OPEN = new ConcurrentHashMap<>();
+
+    /** Streams the PDF for this quote into the given (empty) file. */
+    public interface Fetcher {
+        void fetch(String quoteId, Path into) throws Exception;
+    }
+
+    /** Downloads saved (hits) and made (misses). */
+    public record Stats(long hits, long misses, int size) {}
+
+    private record Entry(String version, long bytes) {}
+
+    private final Path dir;
+    private final Path indexFile;
+    private final Map<String, Entry> cached = new ConcurrentHashMap<>();
+    private final Map<String, String> latest = new ConcurrentHashMap<>();
+    private final Map<String, Long> seenAt = new ConcurrentHashMap<>();   // when latest was last confirmed
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final DebouncedWriter writer;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The shared cache for this directory. */
+    public static XeroPdfCache open(Path dir) {
+        return OPEN.computeIfAbsent(dir.toAbsolutePath().normalize().toString(), k -> new XeroPdfCache(dir));
+    }
+
+    private XeroPdfCache(Path dir) {
+        this.dir = dir;
+        this.indexFile = dir.resolve("index.json");
+        this.writer = new DebouncedWriter("xero-pdfs-writer", 500, this::writeIndex);
+        load();
+    }
+
+    /** Note the quote's current UpdatedDateUTC, as seen in any API response. */
+    public void noteVersion(String quoteId, String version) {
+        if (quoteId == null || version == null || version.isBlank()) return;
+        seenAt.put(quoteId, System.currentTimeMillis());
+        if (!version.equals(latest.put(quoteId, version))) writer.request();
+    }
+
+    /** The latest version we know of, or null if we've never seen this quote. */
+    public String knownVersion(String quoteId) {
+        return latest.get(quoteId);
+    }
+
+    /**
+     * The latest version, if Xero told us about it within maxAgeMillis; otherwise null,
+     * as the quote may have been edited in Xero since. Versions loaded from disk only
+     * count once they've been seen again.
+     */
+    public String freshVersion(String quoteId, long maxAgeMillis) {
+        Long at = seenAt.get(quoteId);
+        return (at == null || System.currentTimeMillis() - at > maxAgeMillis) ? null : latest.get(quoteId);
+    }
+
+    /**
+     * The cached PDF for this version of the quote, fetching it first if what's on
+     * disk is missing or older (a null version always fetches). Two callers asking for
+     * the same quote share one fetch.
+     */
+    public Path get(String quoteId, String version, Fetcher fetcher) throws Exception {
+        noteVersion(quoteId, version);
+        Path pdf = dir.resolve(quoteId + ".pdf");
+
+        synchronized (locks.computeIfAbsent(quoteId, k -> new Object())) {
+            Entry e = cached.get(quoteId);
+            if (e != null && version != null && version.equals(e.version())
+                    && Files.exists(pdf) && Files.size(pdf) == e.bytes()) {
+                hits.incrementAndGet();
+                return pdf;
+            }
+            misses.incrementAndGet();
+
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, quoteId, ".pdf.tmp");
+            try {
+                fetcher.fetch(quoteId, tmp);
+                long bytes = Files.size(tmp);
+                try {
+                    Files.move(tmp, pdf, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, pdf, StandardCopyOption.REPLACE_EXISTING);
+                }
+                cached.put(quoteId, new Entry(version, bytes));
+                writer.request();
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return pdf;
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.get(), misses.get(), cached.size());
+    }
+
+    // ---- Persistence ----
+
+    private void load() {
+        try {
+            if (!Files.exists(indexFile)) return;
+            JSONObject root = new JSONObject(Files.readString(indexFile, StandardCharsets.UTF_8));
+            for (String quoteId : root.keySet()) {
+                JSONObject o = root.getJSONObject(quoteId);
+                String latestVersion = o.optString("latest", null);
+                if (latestVersion != null) latest.put(quoteId, latestVersion);
+                String version = o.optString("version", null);
+                if (version != null && Files.exists(dir.resolve(quoteId + ".pdf"))) {
+                    cached.put(quoteId, new Entry(version, o.optLong("bytes", -1)));
+                }
+            }
+            System.out.println("[Xero] " + cached.size() + " quote PDFs in cache");
+        } catch (Exception e) {
+            // only a cache: start empty and download again as needed
+            System.err.println("[Xero] Couldn't read PDF cache index " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        JSONObject root = new JSONObject();
+        for (Map.Entry<String, String> e : latest.entrySet()) {
+            root.put(e.getKey(), new JSONObject().put("latest", e.getValue()));
+        }
+        for (Map.Entry<String, Entry> e : cached.entrySet()) {
+            JSONObject o = root.optJSONObject(e.getKey());
+            if (o == null) {
+                o = new JSONObject();
+                root.put(e.getKey(), o);
+            }
+            o.put("version", e.getValue().version()).put("bytes", e.getValue().bytes());
+        }
+        AtomicFiles.writeString(indexFile, root.toString(2));
+    }
+}
@@ -0,0 +1,126 @@
+package com.easyread.xero;
+
+import com.easyread.model.QuoteRecord;
+import com.easyread.storage.AtomicFiles;
+import com.easyread.storage.QuoteDatabase;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps each quote's Xero status (sent, accepted, declined...) up to date in the
+ * quotes DB, so we hear what happened after the draft was made.
+ *
+ * Every cycle asks Xero for the quotes changed since the last one (one request, see
+ * XeroClient.changedQuotesSince) and applies them to the DB in one batch. The
+ * watermark, the newest UpdatedDateUTC applied but no later than when that cycle began,
+ * is kept in DATA_DIR/xero_quote_poll.json.
+ * Quotes are matched by xeroQuoteId, or for quotes drafted before we stored that, by
+ * the "Quote 5462" reference we give every draft.
+ */
+public class XeroQuoteStatusPoller {
+
+    private static final Pattern REFERENCE = Pattern.compile("^Quote (\\d+)$");
+
+    private final XeroClient xero;
+    private final QuoteDatabase db;
+    private final Path stateFile;
+    private long watermark;   // guarded by this
+    private ScheduledExecutorService timer;
+
+    public XeroQuoteStatusPoller(XeroClient xero, QuoteDatabase db, Path stateFile) {
+        this.xero = xero;
+        this.db = db;
+        this.stateFile = stateFile;
+        this.watermark = loadWatermark(stateFile);
+    }
+
+    /** Poll now and then every periodMinutes, on a daemon thread. Call once. */
+    public synchronized void start(long periodMinutes) {
+        if (timer != null) return;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "xero-quote-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                pollOnce();
+            } catch (Exception e) {
+                // try again next cycle from the same watermark
+                e.printStackTrace();
+            }
+        }, 0, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    /** One cycle: fetch what changed and write it to the DB. Returns quotes updated. */
+    public synchronized int pollOnce() throws Exception {
+        if (!xero.isConnected()) return 0;   // wait for someone to connect Xero; never log in from here
+        long startedAt = System.currentTimeMillis();
+        List<XeroClient.QuoteStatus> changed = xero.changedQuotesSince(watermark);
+        long newest = watermark;
+
+        Map<Integer, Consumer<QuoteRecord>> edits = new HashMap<>();
+        for (XeroClient.QuoteStatus s : changed) {
+            newest = Math.max(newest, s.updatedAt());
+            QuoteRecord rec = db.findByXeroQuoteId(s.quoteId());
+            if (rec == null) rec = byReference(s.reference());
+            if (rec == null) continue;   // a quote someone made straight in Xero
+            if (s.quoteId().equals(rec.xeroQuoteId) && s.updatedAt() <= rec.xeroUpdatedAt) continue;
+
+            edits.put(rec.quoteNumber, r -> {
+                r.xeroQuoteId = s.quoteId();
+                r.xeroStatus = s.status();
+                r.xeroUpdatedAt = s.updatedAt();
+            });
+        }
+
+        int updated = db.updateQuotes(edits);
+        newest = XeroClient.cappedWatermark(newest, startedAt);
+        if (newest > watermark) {
+            watermark = newest;
+            saveWatermark();
+        }
+        if (!changed.isEmpty()) {
+            System.out.println("[Xero] Quote poll: " + changed.size() + " changed in Xero, " + updated + " updated here");
+        }
+        return updated;
+    }
+
+    // Only claims a quote that isn't linked to a different Xero quote already
+    private QuoteRecord byReference(String reference) {
+        if (reference == null) return null;
+        Matcher m = REFERENCE.matcher(reference.trim());
+        if (!m.matches()) return null;
+        QuoteRecord rec = db.findByNumber(Integer.parseInt(m.group(1)));
+        return (rec != null && rec.xeroQuoteId == null) ? rec : null;
+    }
+
+    // ---- Persistence ----
+
+    private static long loadWatermark(Path file) {
+        try {
+            if (!Files.exists(file)) return 0;
+            return new JSONObject(Files.readString(file, StandardCharsets.UTF_8)).optLong("watermark", 0);
+        } catch (Exception e) {
+            // start over with a full poll
+            return 0;
+        }
+    }
+
+    private void saveWatermark() throws IOException {
+        AtomicFiles.writeString(stateFile, new JSONObject().put("watermark", watermark).toString(2));
+    }
+}
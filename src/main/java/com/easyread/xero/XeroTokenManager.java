@@ -0,0 +1,220 @@
+package com.easyread.xero;
+
+import com.easyread.storage.AtomicFiles;
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Xero OAuth tokens for one app, shared by everything that calls Xero.
+ *
+ * Xero access tokens last 30 minutes and every refresh hands out a new refresh token,
+ * invalidating the old one. So refreshes must never race: however many callers find
+ * the token about to expire, only one refresh request is in flight and they all wait
+ * for its result. A background timer also refreshes a few minutes before expiry, so
+ * callers normally never wait at all. Tokens are written to disk atomically.
+ */
+public final class XeroTokenManager {
+
+    /** One set of tokens, as Xero issued them. */
+    public record Token(String accessToken, String refreshToken, Instant expiresAt) {
+        boolean expiresWithin(Duration d) {
+            return Instant.now().plus(d).isAfter(expiresAt);
+        }
+    }
+
+    // refresh this long before expiry in the background
+    private static final Duration REFRESH_AHEAD = Duration.ofMinutes(5);
+    // a token with less than this left is refreshed before use
+    private static final Duration MIN_VALID = Duration.ofSeconds(60);
+
+    private final OkHttpClient http;
+    private final String clientId;
+    private final String tokenUrl;
+    private final Path file;
+
+    private volatile Token token;
+    private CompletableFuture<Token> inflight;   // guarded by this
+    private ScheduledFuture<?> scheduled;        // guarded by this
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "xero-token-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    XeroTokenManager(OkHttpClient http, String clientId, String tokenUrl, Path file) {
+        this.http = http;
+        this.clientId = clientId;
+        this.tokenUrl = tokenUrl;
+        this.file = file;
+        this.token = load(file);
+        scheduleRefresh();
+    }
+
+    /**
+     * A token that's good for at least another minute, refreshing first if needed.
+     * Null if there's nothing to refresh from (or the refresh token was rejected):
+     * the caller has to log in interactively and then call {@link #apply}.
+     */
+    Token valid() throws IOException {
+        Token t = token;
+        if (t != null && !t.expiresWithin(MIN_VALID)) {
+            return t;
+        }
+        if (t == null || t.refreshToken() == null) {
+            return null;
+        }
+        try {
+            return refresh().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for Xero token refresh");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RefreshRejected) {
+                return null;   // log in again
+            }
+            if (cause instanceof IOException io) throw io;
+            throw new IOException("Xero token refresh failed", cause);
+        }
+    }
+
+    /** The current token if it's good for at least another minute, else null. Never refreshes. */
+    Token current() {
+        Token t = token;
+        return (t != null && !t.expiresWithin(MIN_VALID)) ? t : null;
+    }
+
+    /** Refresh now, or join the refresh that's already under way. */
+    synchronized CompletableFuture<Token> refresh() {
+        if (inflight != null) {
+            return inflight;
+        }
+        Token from = token;
+        CompletableFuture<Token> f = CompletableFuture.supplyAsync(() -> {
+            try {
+                return doRefresh(from);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, timer);
+        inflight = f;
+        f.whenComplete((t, ex) -> {
+            synchronized (this) {
+                if (inflight == f) inflight = null;
+            }
+        });
+        return f;
+    }
+
+    /** Take a token response (from login or refresh), persist it and schedule the next refresh. */
+    Token apply(JSONObject tok) throws IOException {
+        Token t = new Token(
+                tok.getString("access_token"),
+                tok.getString("refresh_token"),
+                Instant.now().plusSeconds(tok.getLong("expires_in")));
+        JSONObject toSave = new JSONObject()
+                .put("access_token", t.accessToken())
+                .put("refresh_token", t.refreshToken())
+                .put("expires_at", t.expiresAt().toEpochMilli());
+        Files.createDirectories(file.getParent());
+        // a torn token file would mean logging in again, so never write it in place
+        AtomicFiles.writeString(file, toSave.toString(2));
+        token = t;
+        scheduleRefresh();
+        return t;
+    }
+
+    // ---- Internals ----
+
+    private Token doRefresh(Token from) throws IOException {
+        if (from != token) {
+            return token;   // someone refreshed while we were queued
+        }
+        RequestBody form = new FormBody.Builder()
+                .add("grant_type", "refresh_token")
+                .add("client_id", clientId)
+                .add("refresh_token", from.refreshToken())
+                .build();
+
+        Request req = new Request.Builder()
+                .url(tokenUrl)
+                .post(form)
+                .header("Accept", "application/json")
+                .build();
+
+        try (Response r = http.newCall(req).execute()) {
+            String raw = (r.body() == null) ? "" : r.body().string();
+            System.out.println("[Xero] Refresh HTTP " + r.code());
+
+            if (r.code() == 400 || r.code() == 401) {
+                // invalid_grant: the refresh token is dead (expired, revoked or already used)
+                token = null;
+                throw new RefreshRejected("Refresh rejected. HTTP " + r.code() + "\n" + first(raw, 1200));
+            }
+            if (!r.isSuccessful()) {
+                throw new IOException("Refresh failed. HTTP " + r.code() + "\n" + first(raw, 1200));
+            }
+            return apply(new JSONObject(raw));
+        }
+    }
+
+    private synchronized void scheduleRefresh() {
+        if (scheduled != null) scheduled.cancel(false);
+        Token t = token;
+        if (t == null || t.refreshToken() == null) return;
+
+        long delay = Duration.between(Instant.now(), t.expiresAt().minus(REFRESH_AHEAD)).toMillis();
+        scheduled = timer.schedule(() -> refresh().whenComplete((ok, ex) -> {
+            if (ex != null) {
+                System.err.println("[Xero] Background token refresh failed: " + ex.getMessage());
+            }
+        }), Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private static Token load(Path file) {
+        try {
+            if (!Files.exists(file)) return null;
+            JSONObject tok = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            return new Token(
+                    tok.getString("access_token"),
+                    tok.getString("refresh_token"),
+                    Instant.ofEpochMilli(tok.getLong("expires_at")));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String first(String s, int n) {
+        if (s == null) return "";
+        return s.length() <= n ? s : s.substring(0, n) + " ...";
+    }
+
+    // The refresh token itself was refused; only an interactive login will do
+    private static final class RefreshRejected extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RefreshRejected(String message) {
+            super(message);
+        }
+    }
+}
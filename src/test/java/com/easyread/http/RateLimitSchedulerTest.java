@@ -0,0 +1,109 @@
+package com.easyread.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitSchedulerTest {
+
+    private record Resp(int code, Map<String, String> headers) {}
+
+    private static RateLimitScheduler scheduler(int perWindow, Duration window) {
+        return new RateLimitScheduler("Test", perWindow, window, 0, List.of());
+    }
+
+    private static Resp call(RateLimitScheduler s, boolean safeToRepeat, Resp... answers) throws Exception {
+        AtomicInteger n = new AtomicInteger();
+        return s.execute(() -> answers[Math.min(n.getAndIncrement(), answers.length - 1)],
+                safeToRepeat, Resp::code, (r, name) -> r.headers().get(name));
+    }
+
+    private static final Resp OK = new Resp(200, Map.of());
+    private static final Resp THROTTLED = new Resp(429, Map.of("Retry-After", "0"));
+    private static final Resp UNAVAILABLE = new Resp(503, Map.of("Retry-After", "0"));
+
+    @Test
+    void throttledCallsAreAlwaysRetried() throws Exception {
+        RateLimitScheduler s = scheduler(100, Duration.ofSeconds(1));
+        assertEquals(200, call(s, false, THROTTLED, OK).code());
+        assertEquals(1, s.metrics().retries());
+    }
+
+    @Test
+    void unavailableIsOnlyRetriedWhenSafeToRepeat() throws Exception {
+        RateLimitScheduler s = scheduler(100, Duration.ofSeconds(1));
+        assertEquals(503, call(s, false, UNAVAILABLE, OK).code());
+        assertEquals(200, call(s, true, UNAVAILABLE, OK).code());
+        assertEquals(1, s.metrics().retries());
+    }
+
+    @Test
+    void callersAreServedInArrivalOrderAtTheLimit() throws Exception {
+        RateLimitScheduler s = scheduler(2, Duration.ofMillis(400));
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 6; i++) {
+            int id = i;
+            Thread t = Thread.ofPlatform().start(() -> {
+                try {
+                    s.execute(() -> { order.add(id); return OK; }, true, Resp::code, (r, name) -> null);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(t);
+            Thread.sleep(20);   // arrive one after another
+        }
+        for (Thread t : threads) t.join();
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), order);
+        // 2 up front, then one every 200 ms
+        assertTrue(System.currentTimeMillis() - start >= 700, "finished too soon");
+        assertTrue(s.metrics().queued() >= 4);
+    }
+
+    @Test
+    void anInterruptedWaiterLeavesTheQueueMoving() throws Exception {
+        RateLimitScheduler s = scheduler(1, Duration.ofMillis(300));
+        call(s, true, OK);   // bucket now empty
+
+        AtomicReference<Throwable> headFailure = new AtomicReference<>();
+        AtomicReference<Throwable> behindFailure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread head = Thread.ofPlatform().start(() -> {
+            try { call(s, true, OK); } catch (Throwable e) { headFailure.set(e); }
+        });
+        Thread.sleep(50);
+        Thread behind = Thread.ofPlatform().start(() -> {
+            try { call(s, true, OK); } catch (Throwable e) { behindFailure.set(e); }
+        });
+        Thread.sleep(50);
+        Thread last = Thread.ofPlatform().start(() -> {
+            try { call(s, true, OK); done.countDown(); } catch (Exception e) { throw new RuntimeException(e); }
+        });
+        Thread.sleep(50);
+
+        behind.interrupt();   // gives up while queued behind the head
+        head.join();
+        behind.join();
+        last.join(5_000);
+
+        assertNull(headFailure.get());
+        assertInstanceOf(InterruptedIOException.class, behindFailure.get());
+        assertEquals(0, done.getCount(), "the caller after the interrupted one never got a turn");
+    }
+}
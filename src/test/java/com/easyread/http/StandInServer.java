@@ -0,0 +1,105 @@
+package com.easyread.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server standing in for a remote API in tests. Every request is
+ * recorded (see requests()) and answered by the handler; a handler that throws
+ * gets a 500.
+ */
+public final class StandInServer implements AutoCloseable {
+
+    /** One request as the server saw it. remotePort tells connections apart. */
+    public record Request(String method, String path, String query, Map<String, List<String>> headers,
+                          String body, int remotePort) {
+
+        public String header(String name) {
+            for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+                if (e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty()) return e.getValue().get(0);
+            }
+            return null;
+        }
+    }
+
+    public record Response(int status, String body, Map<String, String> headers) {
+        public static Response json(String body) {
+            return new Response(200, body, Map.of("Content-Type", "application/json"));
+        }
+
+        public static Response status(int status, String body) {
+            return new Response(status, body, Map.of());
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request request) throws Exception;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private volatile Handler handler;
+
+    public StandInServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** e.g. http://127.0.0.1:53412 */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    public List<Request> requests() {
+        return List.copyOf(requests);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        byte[] in = exchange.getRequestBody().readAllBytes();
+        Request req = new Request(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                exchange.getRequestURI().getRawQuery(), Map.copyOf(exchange.getRequestHeaders()),
+                new String(in, StandardCharsets.UTF_8), exchange.getRemoteAddress().getPort());
+        requests.add(req);
+
+        Response resp;
+        try {
+            resp = handler.handle(req);
+        } catch (Exception e) {
+            resp = Response.status(500, String.valueOf(e));
+        }
+        byte[] out = (resp.body() == null) ? new byte[0] : resp.body().getBytes(StandardCharsets.UTF_8);
+        resp.headers().forEach((k, v) -> exchange.getResponseHeaders().set(k, v));
+        exchange.sendResponseHeaders(resp.status(), out.length == 0 ? -1 : out.length);
+        try (var os = exchange.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
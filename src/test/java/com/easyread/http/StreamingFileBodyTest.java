@@ -0,0 +1,94 @@
+package com.easyread.http;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingFileBodyTest {
+
+    // Takes everything the body publishes, one chunk at a time
+    private static final class Collector implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final List<Integer> chunkSizes = new ArrayList<>();
+        Throwable error;
+        boolean complete;
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            chunkSizes.add(item.remaining());
+            byte[] b = new byte[item.remaining()];
+            item.get(b);
+            bytes.writeBytes(b);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+
+    @Test
+    void sendsExactlyTheLengthItPromised(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[64 * 1024 + 100];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+        Path file = Files.write(dir.resolve("a.pdf"), content);
+        StreamingFileBody body = new StreamingFileBody("<".getBytes(), file, ">".getBytes(), null, null);
+
+        Collector c = new Collector();
+        body.subscribe(c);
+
+        assertTrue(c.complete);
+        assertNull(c.error);
+        assertEquals(body.contentLength(), c.bytes.size());
+        assertEquals(List.of(1, 64 * 1024, 100, 1), c.chunkSizes);   // the last file chunk is only what's left
+        byte[] sent = c.bytes.toByteArray();
+        assertArrayEquals(content, Arrays.copyOfRange(sent, 1, sent.length - 1));
+    }
+
+    @Test
+    void fileThatChangesSizeFailsTheUpload(@TempDir Path dir) throws Exception {
+        Path file = Files.write(dir.resolve("a.pdf"), new byte[1000]);
+        StreamingFileBody shrunk = new StreamingFileBody(new byte[0], file, new byte[0], null, null);
+        StreamingFileBody grown = new StreamingFileBody(new byte[0], file, new byte[0], null, null);
+
+        Files.write(file, new byte[10]);
+        Collector c = new Collector();
+        shrunk.subscribe(c);
+        assertInstanceOf(IOException.class, c.error);
+        assertTrue(c.error.getMessage().contains("shrank"), c.error.getMessage());
+
+        Files.write(file, new byte[2000]);
+        c = new Collector();
+        grown.subscribe(c);
+        assertInstanceOf(IOException.class, c.error);
+        assertTrue(c.error.getMessage().contains("grew"), c.error.getMessage());
+    }
+}
@@ -0,0 +1,68 @@
+package com.easyread.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class IdempotencyLedgerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sessionsOpeningConcurrentlyShareOneLedger() throws Exception {
+        Path file = dir.resolve("idempotency.jsonl");
+        List<IdempotencyLedger> opened = new ArrayList<>();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                IdempotencyLedger l = IdempotencyLedger.open(file);
+                synchronized (opened) {
+                    opened.add(l);
+                }
+            }));
+        }
+        go.countDown();
+        for (Thread t : threads) t.join();
+
+        for (IdempotencyLedger l : opened) assertSame(opened.get(0), l);
+    }
+
+    @Test
+    void startedThenDone() {
+        IdempotencyLedger ledger = IdempotencyLedger.open(dir.resolve("idempotency.jsonl"));
+        assertNull(ledger.get(5462, "xero", "quote"));
+
+        ledger.started(5462, "xero", "quote");
+        assertFalse(ledger.get(5462, "xero", "quote").isDone());
+        assertNull(ledger.doneId(5462, "xero", "quote"));
+
+        ledger.done(5462, "xero", "quote", "q-1");
+        ledger.started(5462, "xero", "quote");   // keeps DONE
+        assertEquals("q-1", ledger.doneId(5462, "xero", "quote"));
+    }
+
+    @Test
+    void idempotencyKeysAreStablePerOperation() {
+        assertEquals(IdempotencyLedger.idempotencyKey(1, "xero", "quote"),
+                IdempotencyLedger.idempotencyKey(1, "xero", "quote"));
+        assertNotEquals(IdempotencyLedger.idempotencyKey(1, "xero", "quote"),
+                IdempotencyLedger.idempotencyKey(2, "xero", "quote"));
+    }
+}
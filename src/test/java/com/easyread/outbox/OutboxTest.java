@@ -0,0 +1,69 @@
+package com.easyread.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboxTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void everySessionGetsTheSameOutbox() {
+        Path file = dir.resolve("outbox.jsonl");
+        assertSame(Outbox.open(file), Outbox.open(dir.resolve("x/../outbox.jsonl")));
+    }
+
+    @Test
+    void eachOperationRunsOnceHoweverManySessionsStart() throws Exception {
+        Outbox outbox = Outbox.open(dir.resolve("outbox.jsonl"));
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(3);
+        outbox.register(Outbox.Kind.TRELLO_CARD, q -> {
+            runs.incrementAndGet();
+            done.countDown();
+            return "card" + q;
+        });
+
+        // two sessions' listeners; the second session closes straight away
+        List<Outbox.Status> seen = new CopyOnWriteArrayList<>();
+        Consumer<Outbox.Status> first = seen::add;
+        Consumer<Outbox.Status> second = s -> { throw new AssertionError("removed listener called"); };
+        outbox.addListener(first);
+        outbox.addListener(second);
+        outbox.removeListener(second);
+
+        outbox.enqueue(1, Outbox.Kind.TRELLO_CARD);
+        outbox.start();
+        outbox.start();
+        outbox.enqueue(2, Outbox.Kind.TRELLO_CARD);
+        outbox.enqueue(3, Outbox.Kind.TRELLO_CARD);
+        assertFalse(outbox.enqueue(3, Outbox.Kind.TRELLO_CARD));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);   // a duplicate run would show up here
+        assertEquals(3, runs.get());
+        assertEquals("card2", outbox.status(2, Outbox.Kind.TRELLO_CARD).result());
+        assertEquals(6, seen.size());   // PENDING then DONE for each
+
+        // and every DONE made it to the file
+        long doneLines = Files.readAllLines(dir.resolve("outbox.jsonl"), StandardCharsets.UTF_8).stream()
+                .filter(l -> l.contains("\"DONE\"")).count();
+        assertEquals(3, doneLines);
+    }
+}
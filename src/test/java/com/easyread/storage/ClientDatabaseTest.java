@@ -0,0 +1,126 @@
+package com.easyread.storage;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientDatabaseTest {
+
+    @TempDir
+    Path dir;
+
+    // run each task on its own thread, all released at once
+    private static void concurrently(List<Runnable> tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Runnable task : tasks) {
+            futures.add(pool.submit(() -> {
+                go.await();
+                task.run();
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+    }
+
+    @Test
+    void openSharesOneInstancePerFile() {
+        Path file = dir.resolve("clients_db.json");
+        assertSame(ClientDatabase.open(file.toString()), ClientDatabase.open(dir.resolve("./clients_db.json").toString()));
+    }
+
+    @Test
+    void concurrentEditsToOneCompanyAreAllKept() throws Exception {
+        ClientDatabase db = ClientDatabase.open(dir.resolve("clients_db.json").toString());
+        int threads = 8, each = 100;
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * each;
+            tasks.add(() -> {
+                for (int i = 1; i <= each; i++) {
+                    db.recordQuote("Acme", "person" + base + "@acme.example", base + i, "Job " + (base + i));
+                }
+            });
+        }
+        concurrently(tasks);
+
+        ClientDatabase.ClientInfo acme = db.getClient("Acme");
+        assertEquals(threads * each, acme.jobs.size());
+        assertEquals(threads, acme.contacts.size());
+        for (int q = 1; q <= threads * each; q++) {
+            assertEquals("Acme", db.findJob(q).companyName);
+        }
+    }
+
+    @Test
+    void concurrentEditsAcrossCompaniesKeepTheIndexesInStep() throws Exception {
+        ClientDatabase db = ClientDatabase.open(dir.resolve("clients_db.json").toString());
+        int companies = 16;
+        List<Runnable> tasks = new ArrayList<>();
+        for (int c = 0; c < companies; c++) {
+            String name = "Company " + c;
+            int base = c * 1000;
+            tasks.add(() -> {
+                for (int i = 1; i <= 50; i++) db.recordQuote(name, "desk@c" + base + ".example", base + i, "Job");
+                for (int i = 1; i <= 50; i += 2) assertTrue(db.updateJobTitle(name, base + i, "Renamed"));
+                for (int i = 2; i <= 50; i += 2) assertTrue(db.removeJob(name, base + i));
+                assertTrue(db.renameCompany(name, name + " Ltd"));
+            });
+        }
+        concurrently(tasks);
+
+        Map<String, ClientDatabase.ClientInfo> all = db.snapshot();
+        assertEquals(companies, all.size());
+        for (int c = 0; c < companies; c++) {
+            String name = "Company " + c + " Ltd";
+            int base = c * 1000;
+            assertEquals(25, all.get(name).jobs.size());
+            assertEquals(name, db.findJob(base + 1).companyName);
+            assertEquals("Renamed", db.findJob(base + 1).job.jobTitle);
+            assertNull(db.findJob(base + 2));
+            assertEquals(List.of(name), db.companiesForEmail("DESK@c" + base + ".example"));
+            assertEquals(List.of(name), db.searchCompanies("company " + c + " ltd"));
+        }
+        assertFalse(all.containsKey("Company 0"));
+    }
+
+    @Test
+    void flushWritesEveryCompany() throws Exception {
+        Path file = dir.resolve("clients_db.json");
+        ClientDatabase db = ClientDatabase.open(file.toString());
+        List<Runnable> tasks = new ArrayList<>();
+        for (int c = 0; c < 8; c++) {
+            String name = "Company " + c;
+            int q = c + 1;
+            tasks.add(() -> db.recordQuote(name, "a@b.example", q, "Job"));
+        }
+        concurrently(tasks);
+        db.flush();
+
+        JsonObject saved = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(8, saved.size());
+        assertNotNull(saved.getAsJsonObject("Company 3").getAsJsonArray("jobs"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.easyread.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompanySearchIndexTest {
+
+    private static final String[] WORDS = {"acme", "globex", "initech", "umbrella", "hooli", "nhs", "trust", "ltd"};
+    private static final String[] QUERIES = {"", "a", "nh", "acm", "ltd", "umbrella", "@hooli", "trust ltd", "zzz", ".example"};
+
+    // what search() should say, the slow way
+    private static List<String> expected(Map<String, Set<String>> companies, String query) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        List<String> out = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> e : companies.entrySet()) {
+            boolean hit = e.getKey().toLowerCase(Locale.ROOT).contains(q);
+            for (String email : e.getValue()) hit |= email.toLowerCase(Locale.ROOT).contains(q);
+            if (hit) out.add(e.getKey());
+        }
+        return out;
+    }
+
+    @Test
+    void matchesABruteForceScanThroughRandomEdits() {
+        CompanySearchIndex index = new CompanySearchIndex();
+        Map<String, Set<String>> companies = new TreeMap<>();
+        Random rnd = new Random(42);
+
+        for (int step = 0; step < 5000; step++) {
+            String name = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)] + " " + rnd.nextInt(40);
+            int op = rnd.nextInt(4);
+            if (op == 0) {
+                index.remove(name);
+                companies.remove(name);
+            } else {
+                Set<String> emails = Set.of(
+                        "desk@" + WORDS[rnd.nextInt(WORDS.length)] + ".example",
+                        "info" + rnd.nextInt(5) + "@" + WORDS[rnd.nextInt(WORDS.length)] + ".example");
+                if (op == 1 && companies.containsKey(name)) emails = companies.get(name);   // unchanged put
+                index.put(name, emails);
+                companies.put(name, emails);
+            }
+            if (step % 50 == 0) {
+                for (String q : QUERIES) {
+                    assertEquals(expected(companies, q), index.search(q), "query '" + q + "' at step " + step);
+                }
+            }
+        }
+    }
+
+    @Test
+    void newEmailsAreFoundAndOldOnesForgotten() {
+        CompanySearchIndex index = new CompanySearchIndex();
+        index.put("Acme", List.of("old@acme.example"));
+        index.put("Acme", List.of("new@acme.example"));
+
+        assertEquals(List.of("Acme"), index.search("new@"));
+        assertEquals(List.of(), index.search("old@"));
+        assertEquals(List.of("Acme"), index.search(""));
+    }
+
+    // the request's scale: 50k companies, the short queries that can't use trigrams
+    static Map<String, Set<String>> fiftyThousandCompanies() {
+        Map<String, Set<String>> companies = new TreeMap<>();
+        Random rnd = new Random(7);
+        while (companies.size() < 50_000) {
+            String name = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)]
+                    + " " + Integer.toString(rnd.nextInt(1_000_000), 36);
+            companies.put(name, Set.of("desk" + rnd.nextInt(100) + "@" + WORDS[rnd.nextInt(WORDS.length)] + ".example",
+                    Integer.toString(rnd.nextInt(100_000), 36) + "@mail.example"));
+        }
+        return companies;
+    }
+
+    @Test
+    void shortQueriesAt50kCompanies() {
+        Map<String, Set<String>> companies = fiftyThousandCompanies();
+        CompanySearchIndex index = new CompanySearchIndex();
+        companies.forEach(index::put);
+
+        for (String q : new String[] {"a", "z", "nh", "7q", "q7", "@m", "zz", "acm", "k3x"}) {
+            assertEquals(expected(companies, q), index.search(q), "query '" + q + "'");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.easyread.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DebouncedWriterTest {
+
+    @Test
+    void persistentFailureBacksOffThenRecovers() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        AtomicBoolean broken = new AtomicBoolean(true);
+        DebouncedWriter writer = new DebouncedWriter("test-writer", 10, () -> {
+            runs.incrementAndGet();
+            if (broken.get()) throw new IOException("read-only");
+        });
+
+        writer.request();
+        Thread.sleep(600);
+        // a 10 ms window retried at once would be ~60 runs; doubling gives 10+20+...+320
+        int failed = runs.get();
+        assertTrue(failed >= 3 && failed <= 7, "runs " + failed);
+
+        broken.set(false);
+        writer.flush();
+        assertEquals(failed + 1, runs.get());
+        Thread.sleep(700);   // nothing left pending, so no more runs
+        assertEquals(failed + 1, runs.get());
+    }
+}
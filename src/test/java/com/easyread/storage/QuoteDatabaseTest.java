@@ -0,0 +1,85 @@
+package com.easyread.storage;
+
+import com.easyread.model.QuoteRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class QuoteDatabaseTest {
+
+    @TempDir
+    Path dir;
+
+    static QuoteRecord quote(int number, String company) {
+        QuoteRecord r = new QuoteRecord();
+        r.quoteNumber = number;
+        r.companyName = company;
+        r.clientEmail = "someone@" + company.toLowerCase() + ".example";
+        r.createdAt = 1_700_000_000_000L + number;
+        return r;
+    }
+
+    @Test
+    void findByNumberSeesSnapshotJournalAndNewQuotes() throws Exception {
+        String db = dir.resolve("quotes_db.json").toString();
+        List<QuoteRecord> snapshot = new ArrayList<>();
+        for (int n = 1; n <= 200; n++) snapshot.add(quote(n, "Acme"));
+        QuoteSnapshotFile.write(Path.of(db + ".bin"), snapshot, 200);
+
+        QuoteDatabase first = QuoteDatabase.open(db);
+        first.addQuote(quote(201, "Globex"));
+        assertEquals("Acme", first.findByNumber(17).companyName);
+        assertEquals("Globex", first.findByNumber(201).companyName);
+        assertNull(first.findByNumber(999));
+
+        // reopen: the snapshot comes back through the map, the new quote from the journal
+        QuoteDatabase second = QuoteDatabase.openUnshared(db);
+        assertEquals(17, second.findByNumber(17).quoteNumber);
+        assertEquals("Globex", second.findByNumber(201).companyName);
+        assertEquals(202, second.getNextQuoteNumber());
+    }
+
+    @Test
+    void updateReplacesTheRecordFindByNumberReturns() {
+        QuoteDatabase db = QuoteDatabase.open(dir.resolve("quotes_db.json").toString());
+        db.addQuote(quote(5, "Acme"));
+        QuoteRecord before = db.findByNumber(5);
+
+        db.updateQuote(5, r -> r.xeroStatus = "SENT");
+
+        assertEquals("SENT", db.findByNumber(5).xeroStatus);
+        assertNull(before.xeroStatus);   // readers holding the old copy see no change
+    }
+
+    @Test
+    void findByXeroQuoteIdReadsTheColumnAndFollowsUpdates() throws Exception {
+        String path = dir.resolve("quotes_db.json").toString();
+        List<QuoteRecord> snapshot = new ArrayList<>();
+        for (int n = 1; n <= 50; n++) {
+            QuoteRecord r = quote(n, "Acme");
+            if (n % 2 == 0) r.xeroQuoteId = "xq-" + n;
+            snapshot.add(r);
+        }
+        QuoteSnapshotFile.write(Path.of(path + ".bin"), snapshot, 50);
+        QuoteDatabase db = QuoteDatabase.open(path);
+
+        assertEquals(10, db.findByXeroQuoteId("xq-10").quoteNumber);
+        assertNull(db.findByXeroQuoteId("xq-11"));
+
+        QuoteRecord linked = quote(51, "Globex");
+        linked.xeroQuoteId = "xq-51";
+        db.addQuote(linked);
+        db.updateQuote(11, r -> r.xeroQuoteId = "xq-11");
+        db.updateQuote(10, r -> r.xeroQuoteId = null);
+
+        assertEquals(51, db.findByXeroQuoteId("xq-51").quoteNumber);
+        assertEquals(11, db.findByXeroQuoteId("xq-11").quoteNumber);
+        assertNull(db.findByXeroQuoteId("xq-10"));
+    }
+}
@@ -0,0 +1,97 @@
+package com.easyread.storage;
+
+import com.easyread.model.QuoteRecord;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class QuoteSnapshotFileTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    static QuoteRecord full(int n) {
+        QuoteRecord r = new QuoteRecord();
+        r.quoteNumber = n;
+        r.clientName = "Zoë Ångström " + n;
+        r.clientEmail = "client" + n + "@example.com";
+        r.companyName = "Acme ☂ Ltd";
+        r.documentTitle = "Tenancy agreement";
+        r.specialNotes = "";   // empty, not null
+        r.finalWordCount = 1200 + n;
+        r.estimatedHours = 2.75;
+        r.finalPriceGBP = 149.99;
+        r.attachedFilePath = "/data/in/" + n + ".docx";
+        r.jobFolderPath = null;
+        r.createdAt = 1_700_000_000_000L + n;
+        r.xeroQuoteId = (n % 2 == 0) ? "q-" + n : null;
+        r.xeroStatus = (n % 2 == 0) ? "SENT" : null;
+        r.xeroUpdatedAt = (n % 2 == 0) ? 1_710_000_000_000L : 0;
+        return r;
+    }
+
+    static void assertRecordsEqual(List<QuoteRecord> expected, List<QuoteRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(JSON.valueToTree(expected.get(i)), JSON.valueToTree(actual.get(i)), "record " + i);
+        }
+    }
+
+    @Test
+    void everyFieldSurvivesARoundTrip() throws Exception {
+        List<QuoteRecord> records = new ArrayList<>();
+        for (int n = 1; n <= 50; n++) records.add(full(n));
+        records.add(new QuoteRecord());   // all defaults and nulls
+        Path file = dir.resolve("quotes.bin");
+
+        QuoteSnapshotFile.write(file, records, 77);
+        QuoteSnapshotFile.LazyList lazy = QuoteSnapshotFile.open(file);
+
+        assertEquals(77, lazy.lastQuoteNumber());
+        assertRecordsEqual(records, lazy);
+        assertEquals("", lazy.get(0).specialNotes);
+        assertNull(lazy.get(0).jobFolderPath);
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(records.get(i).quoteNumber, lazy.quoteNumberAt(i));
+        }
+    }
+
+    @Test
+    void editsAndAppendsAreWrittenBack() throws Exception {
+        List<QuoteRecord> records = new ArrayList<>();
+        for (int n = 1; n <= 10; n++) records.add(full(n));
+        Path first = dir.resolve("first.bin");
+        QuoteSnapshotFile.write(first, records, 10);
+
+        QuoteSnapshotFile.LazyList lazy = QuoteSnapshotFile.open(first);
+        QuoteRecord edited = full(3);
+        edited.xeroStatus = "ACCEPTED";
+        lazy.set(2, edited);
+        lazy.add(full(11));
+        records.set(2, edited);
+        records.add(full(11));
+
+        Path second = dir.resolve("second.bin");
+        QuoteSnapshotFile.write(second, lazy.copyForWrite(), 11);
+        QuoteSnapshotFile.LazyList reread = QuoteSnapshotFile.open(second);
+
+        assertRecordsEqual(records, reread);
+        assertEquals(11, reread.quoteNumberAt(10));
+    }
+
+    @Test
+    void emptySnapshot() throws Exception {
+        Path file = dir.resolve("empty.bin");
+        QuoteSnapshotFile.write(file, List.of(), 0);
+        assertEquals(0, QuoteSnapshotFile.open(file).size());
+    }
+}
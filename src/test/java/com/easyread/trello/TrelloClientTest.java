@@ -0,0 +1,131 @@
+package com.easyread.trello;
+
+import com.easyread.http.RateLimitScheduler;
+import com.easyread.http.StandInServer;
+import com.easyread.http.StandInServer.Request;
+import com.easyread.http.StandInServer.Response;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrelloClientTest {
+
+    private StandInServer trello;
+    private final AtomicInteger cards = new AtomicInteger();
+
+    @BeforeEach
+    void startStandIn() throws Exception {
+        trello = new StandInServer(req -> {
+            if (req.method().equals("POST") && req.path().equals("/1/cards")) {
+                return Response.json("{\"id\":\"card" + cards.incrementAndGet() + "\",\"name\":\"x\"}");
+            }
+            if (req.method().equals("PUT")) return Response.json("{}");
+            return Response.status(404, "not here");
+        });
+    }
+
+    @AfterEach
+    void stopStandIn() {
+        trello.close();
+    }
+
+    // a limiter of its own, so tests never wait on the process-wide Trello budget
+    private static RateLimitScheduler limiter() {
+        return new RateLimitScheduler("Trello (test)", 1_000, Duration.ofSeconds(1), 0, List.of());
+    }
+
+    private TrelloClient client() {
+        return new TrelloClient("key", "token", "list1", "status", "withUs", "hours",
+                trello.baseUrl() + "/1", Duration.ofSeconds(5), limiter());
+    }
+
+    @Test
+    void classicCardMakesFourCalls() throws Exception {
+        TrelloClient client = client();
+        client.setCreationMode(TrelloClient.CreationMode.CLASSIC);
+
+        String cardId = client.createFullCardForQuote("Stand-in Test Co", "Policy", 5462, "Make it plain", "a@b.example", 2.5);
+
+        assertEquals("card1", cardId);
+        assertEquals(4, client.httpCallCount());
+        List<Request> reqs = trello.requests();
+        Request create = reqs.get(0);
+        assertEquals("POST", create.method());
+        assertTrue(create.body().contains("name=5462+%7C+Policy+%7C+Stand-in+Test+Co"), create.body());
+        assertTrue(create.body().contains("key=key") && create.body().contains("token=token"));
+
+        Request desc = reqs.stream().filter(r -> r.path().equals("/1/cards/card1")).findFirst().orElseThrow();
+        String text = new JSONObject(desc.body()).getString("desc");
+        assertTrue(text.contains("Make it plain") && text.contains("Client email: a@b.example"), text);
+        assertTrue(reqs.stream().anyMatch(r -> r.path().equals("/1/cards/card1/customField/hours/item")
+                && r.body().contains("\"number\":\"2.5\"")));
+        assertTrue(reqs.stream().anyMatch(r -> r.path().equals("/1/cards/card1/customField/status/item")
+                && r.body().contains("\"idValue\":\"withUs\"")));
+    }
+
+    @Test
+    void minimalRoundTripsSendsDescriptionWithTheCreate() throws Exception {
+        TrelloClient client = client();
+        client.setCreationMode(TrelloClient.CreationMode.MINIMAL_ROUND_TRIPS);
+
+        client.createFullCardForQuote("Stand-in Test Co", "Policy", 5463, "Brief", null, 1.0);
+
+        assertEquals(2, client.httpCallCount());
+        assertTrue(trello.requests().get(0).body().contains("desc="));
+        assertTrue(trello.requests().stream().anyMatch(r -> r.path().equals("/1/cards/card1/customFields")));
+    }
+
+    @Test
+    void sequentialCallsShareOneKeptAliveConnection() throws Exception {
+        TrelloClient client = client();
+        String cardId = client.createCard("Card", "desc");
+        client.setStatusWithUs(cardId);
+        client.setEstimatedHours(cardId, 3);
+
+        long connections = trello.requests().stream().mapToInt(Request::remotePort).distinct().count();
+        assertEquals(1, connections);
+    }
+
+    @Test
+    void failedUploadIsNotRetriedHere(@TempDir Path dir) throws Exception {
+        Path file = Files.writeString(dir.resolve("brief.txt"), "hello");
+        trello.setHandler(req -> Response.status(502, "bad gateway"));
+
+        IOException e = assertThrows(IOException.class,
+                () -> client().uploadAttachmentToCard("card1", file.toString()));
+        assertTrue(e.getMessage().contains("HTTP 502"), e.getMessage());
+        assertEquals(1, trello.requests().size());   // the outbox retries, not the upload
+    }
+
+    @Test
+    void stalledUploadTimesOut(@TempDir Path dir) throws Exception {
+        Path file = Files.writeString(dir.resolve("brief.txt"), "hello");
+        CountDownLatch release = new CountDownLatch(1);
+        trello.setHandler(req -> {
+            release.await();   // never answers while the test waits
+            return Response.json("{}");
+        });
+        TrelloClient client = new TrelloClient("key", "token", "list1", "status", "withUs", "hours",
+                trello.baseUrl() + "/1", Duration.ofMillis(300), limiter());
+        try {
+            assertThrows(HttpTimeoutException.class, () -> client.uploadAttachmentToCard("card1", file.toString()));
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.easyread.xero;
+
+import com.easyread.http.StandInServer;
+import com.easyread.http.StandInServer.Request;
+import com.easyread.http.StandInServer.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XeroClientTest {
+
+    @TempDir
+    Path dataDir;
+
+    private StandInServer xero;
+
+    @BeforeEach
+    void startStandIn() throws Exception {
+        xero = new StandInServer(req -> Response.status(404, "not here"));
+    }
+
+    @AfterEach
+    void stopStandIn() {
+        xero.close();
+    }
+
+    // Logged in already: a token good for an hour and a chosen tenant
+    private XeroClient client() throws Exception {
+        Files.writeString(dataDir.resolve("xero_tokens.json"), new JSONObject()
+                .put("access_token", "access")
+                .put("refresh_token", "refresh")
+                .put("expires_at", System.currentTimeMillis() + 3_600_000).toString());
+        Files.writeString(dataDir.resolve("xero_tenant.json"), new JSONObject().put("tenantId", "tenant1").toString());
+        return new XeroClient("client", dataDir, xero.baseUrl(), xero.baseUrl(), xero.baseUrl() + "/connect/token",
+                "http://127.0.0.1:1/callback");
+    }
+
+    private static String contacts(JSONObject... items) {
+        return new JSONObject().put("Contacts", new JSONArray(List.of(items))).toString();
+    }
+
+    @Test
+    void upsertContactsAnswersItemByItem() throws Exception {
+        xero.setHandler(req -> {
+            if (req.method().equals("GET")) {
+                return Response.json(contacts(new JSONObject()
+                        .put("ContactID", "known").put("EmailAddress", "known@x.example")));
+            }
+            JSONArray sent = new JSONObject(req.body()).getJSONArray("Contacts");
+            assertEquals(2, sent.length());
+            return Response.json(contacts(
+                    new JSONObject().put("ContactID", "made").put("StatusAttributeString", "OK"),
+                    new JSONObject().put("StatusAttributeString", "ERROR")
+                            .put("ValidationErrors", new JSONArray().put(new JSONObject().put("Message", "Name is taken")))));
+        });
+
+        List<XeroClient.ItemResult> results = client().upsertContacts(List.of(
+                new XeroClient.NewContact("Known Co", "known@x.example"),
+                new XeroClient.NewContact("New Co", "new@x.example"),
+                new XeroClient.NewContact("No Email Co", ""),
+                new XeroClient.NewContact("Taken Co", "taken@x.example"),
+                new XeroClient.NewContact("New Co", "NEW@x.example")));
+
+        assertEquals(5, results.size());
+        assertEquals("known", results.get(0).id());
+        assertEquals("made", results.get(1).id());
+        assertEquals("No email address", results.get(2).error());
+        assertEquals("Name is taken", results.get(3).error());
+        assertEquals("made", results.get(4).id());   // same email, one contact
+
+        Request post = xero.requests().stream().filter(r -> r.method().equals("POST")).findFirst().orElseThrow();
+        assertEquals("summarizeErrors=false", post.query());
+        assertNotNull(post.header("Idempotency-Key"));
+    }
+
+    @Test
+    void failedLookupFailsUncachedItemsWithoutCreatingThem() throws Exception {
+        xero.setHandler(req -> Response.status(500, "down"));
+
+        List<XeroClient.ItemResult> results = client().upsertContacts(List.of(
+                new XeroClient.NewContact("A Co", "a@x.example"),
+                new XeroClient.NewContact("B Co", "b@x.example")));
+
+        for (XeroClient.ItemResult r : results) {
+            assertNull(r.id());
+            assertTrue(r.error().startsWith("Contact lookup failed"), r.error());
+        }
+        assertTrue(xero.requests().stream().noneMatch(r -> r.method().equals("POST")));
+    }
+
+    @Test
+    void onlyARetrySendsTheSameIdempotencyKey() throws Exception {
+        AtomicInteger posts = new AtomicInteger();
+        xero.setHandler(req -> posts.incrementAndGet() == 1
+                ? new Response(503, "busy", Map.of("Retry-After", "0"))
+                : Response.json(new JSONObject().put("Quotes", new JSONArray()
+                        .put(new JSONObject().put("QuoteID", "q1").put("StatusAttributeString", "OK"))).toString()));
+        XeroClient client = client();
+        List<XeroClient.DraftQuote> batch = List.of(new XeroClient.DraftQuote("c1", "Policy", "Quote 1", 100, "200"));
+
+        assertEquals("q1", client.createDraftQuotes(batch).get(0).id());   // 503, then retried
+        client.createDraftQuotes(batch);                                   // the same quote, asked for again
+
+        List<String> keys = xero.requests().stream().map(r -> r.header("Idempotency-Key")).toList();
+        assertEquals(3, keys.size());
+        assertEquals(keys.get(0), keys.get(1));
+        assertNotEquals(keys.get(1), keys.get(2));
+    }
+
+    @Test
+    void contactSyncNeverSetsTheWatermarkPastItsStart() throws Exception {
+        long later = System.currentTimeMillis() + 3_600_000;   // edited in Xero mid-sync
+        xero.setHandler(req -> Response.json(contacts(
+                new JSONObject().put("ContactID", "old").put("Name", "Acme").put("EmailAddress", "a@acme.example")
+                        .put("ContactStatus", "ACTIVE").put("UpdatedDateUTC", "/Date(" + later + "+0000)/"),
+                new JSONObject().put("ContactID", "gone").put("Name", "Acme").put("EmailAddress", "a@acme.example")
+                        .put("ContactStatus", "ARCHIVED").put("UpdatedDateUTC", "/Date(1000+0000)/"))));
+        XeroClient client = client();
+
+        long before = System.currentTimeMillis();
+        client.syncContactMirror();
+
+        XeroContactMirror mirror = client.contactMirror();
+        assertTrue(mirror.watermark() <= before, "watermark " + mirror.watermark());
+        // the archived duplicate doesn't take the email or name from the live contact
+        assertEquals("old", mirror.byEmail("A@acme.example").contactId());
+        assertEquals("old", mirror.byName("acme").contactId());
+    }
+
+    @Test
+    void notConnectedWithoutATokenAndNothingIsAsked() throws Exception {
+        XeroClient client = new XeroClient("client", dataDir, xero.baseUrl(), xero.baseUrl(),
+                xero.baseUrl() + "/connect/token", "http://127.0.0.1:1/callback");
+
+        assertFalse(client.isConnected());
+        assertTrue(xero.requests().isEmpty());
+    }
+
+    @Test
+    void concurrentLoginsEachGetTheirOwnToken() throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = s.getLocalPort();
+        }
+        String redirect = "http://127.0.0.1:" + port + "/callback";
+
+        // Xero's identity server: authorize sends the browser straight back with a code
+        // naming the app, and the token endpoint swaps that code for a token naming it too
+        try (StandInServer identity = new StandInServer(req -> {
+            if (req.path().equals("/connect/authorize")) {
+                Map<String, String> q = form(req.query());
+                return new Response(302, "", Map.of("Location", q.get("redirect_uri")
+                        + "?code=code-" + q.get("client_id")
+                        + "&state=" + URLEncoder.encode(q.get("state"), StandardCharsets.UTF_8)));
+            }
+            Map<String, String> f = form(req.body());
+            return Response.json(new JSONObject().put("access_token", "token-" + f.get("code"))
+                    .put("refresh_token", "refresh").put("expires_in", 1800).toString());
+        })) {
+            List<String> pages = new CopyOnWriteArrayList<>();
+            List<CompletableFuture<XeroTokenManager.Token>> logins = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                XeroClient client = new XeroClient("app" + i, dataDir.resolve("app" + i), xero.baseUrl(),
+                        identity.baseUrl(), identity.baseUrl() + "/connect/token", redirect);
+                CompletableFuture<XeroTokenManager.Token> login = client.loginAsync(pages::add);
+                assertSame(login, client.loginAsync(pages::add));   // joins the login under way
+                logins.add(login);
+            }
+            assertEquals(5, pages.size());   // one login page per app, not per caller
+
+            // every user finishes their login at once
+            HttpClient browser = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.ALWAYS).build();
+            for (String page : pages) {
+                browser.sendAsync(HttpRequest.newBuilder(URI.create(page)).build(), HttpResponse.BodyHandlers.discarding());
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals("token-code-app" + i, logins.get(i).get(10, TimeUnit.SECONDS).accessToken());
+            }
+            assertEquals(0, XeroCallbackEndpoint.shared(redirect).pendingCount());
+        }
+    }
+
+    private static Map<String, String> form(String encoded) {
+        Map<String, String> m = new HashMap<>();
+        for (String p : encoded.split("&")) {
+            String[] kv = p.split("=", 2);
+            m.put(kv[0], kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+        }
+        return m;
+    }
+}